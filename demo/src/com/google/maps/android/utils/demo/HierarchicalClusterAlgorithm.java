@@ -0,0 +1,577 @@
+package com.google.maps.android.utils.demo;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.algo.ScreenBasedAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Clusters with a hierarchy precomputed for every zoom level, in the style of supercluster: the
+ * items are clustered at the highest zoom, those clusters are clustered again at the zoom below,
+ * and so on. Each level is stored as a KD-tree, so the clusters of a zoom (and bounds) are looked
+ * up rather than computed.
+ *
+ * The hierarchy is built on the first getClusters() after the items changed, which ClusterManager
+ * calls on its background thread. While items are still being added in batches (see
+ * {@link #setDeferBuilds}) it's only rebuilt once they've doubled, so a load costs a few builds
+ * rather than one per batch.
+ *
+ * Once {@link #setViewport} is called, only the clusters in the viewport (and a margin around it)
+ * are returned, and ClusterManager reclusters when the map moves. So the renderer only creates
+ * markers, and loads icons, for about a screen of clusters.
+ */
+public class HierarchicalClusterAlgorithm<T extends ClusterItem> implements ScreenBasedAlgorithm<T> {
+    // Same as NonHierarchicalDistanceBasedAlgorithm, in pixels of a 256 pixel world at zoom 0.
+    private static final int DEFAULT_MAX_DISTANCE_AT_ZOOM = 100;
+    private static final int MIN_ZOOM = 0;
+    // Items aren't clustered above this zoom.
+    private static final int MAX_ZOOM = 21;
+    // KD-tree leaves are scanned rather than split further.
+    private static final int NODE_SIZE = 64;
+    private static final double DEFAULT_VIEWPORT_MARGIN = 0.5;
+
+    private final Set<T> mItems = new LinkedHashSet<>();
+    private int mMaxDistance = DEFAULT_MAX_DISTANCE_AT_ZOOM;
+    // The last built, of mBuiltVersion.
+    private Hierarchy<T> mHierarchy = null;
+    private int mVersion = 0;
+    private int mBuiltVersion = -1;
+    private int mBuiltSize = 0;
+    // Whether items were only added since those of the hierarchy were copied.
+    private boolean mOnlyAdded = false;
+    private boolean mDeferBuilds = false;
+    private final Object mBuildLock = new Object();
+    // Null to cluster everywhere.
+    private LatLngBounds mViewport = null;
+    private double mViewportMargin = DEFAULT_VIEWPORT_MARGIN;
+
+    @Override
+    public synchronized void addItem(T item) {
+        if (mItems.add(item))
+            mVersion++;
+    }
+
+    @Override
+    public synchronized void addItems(Collection<T> items) {
+        if (mItems.addAll(items))
+            mVersion++;
+    }
+
+    @Override
+    public synchronized void clearItems() {
+        mItems.clear();
+        invalidate();
+    }
+
+    @Override
+    public synchronized void removeItem(T item) {
+        if (mItems.remove(item))
+            invalidate();
+    }
+
+    @Override
+    public synchronized Collection<T> getItems() {
+        return new ArrayList<>(mItems);
+    }
+
+    @Override
+    public synchronized void setMaxDistanceBetweenClusteredItems(int maxDistance) {
+        mMaxDistance = maxDistance;
+        invalidate();
+    }
+
+    @Override
+    public synchronized int getMaxDistanceBetweenClusteredItems() {
+        return mMaxDistance;
+    }
+
+    private void invalidate() {
+        mOnlyAdded = false;
+        mVersion++;
+    }
+
+    /**
+     * While true, getClusters() keeps using the hierarchy built before items were added, until the
+     * items have doubled. Removing items still rebuilds it. The first getClusters() after it's set
+     * to false builds the hierarchy of all the items.
+     */
+    public synchronized void setDeferBuilds(boolean deferBuilds) {
+        mDeferBuilds = deferBuilds;
+    }
+
+    /**
+     * Restricts the clusters to the viewport plus the margin, null to return all of them.
+     */
+    public synchronized void setViewport(LatLngBounds viewport) {
+        mViewport = viewport;
+    }
+
+    /**
+     * @param margin added on each side of the viewport, as a fraction of its size.
+     */
+    public synchronized void setViewportMargin(double margin) {
+        mViewportMargin = margin;
+    }
+
+    @Override
+    public synchronized boolean shouldReclusterOnMapMovement() {
+        return mViewport != null;
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        // The camera position doesn't give the bounds, the viewport is set by setViewport().
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        LatLngBounds bounds;
+        synchronized (this) {
+            bounds = mViewport != null ? addMargin(mViewport, mViewportMargin) : null;
+        }
+        return getHierarchy().getClusters(zoom, bounds);
+    }
+
+    /**
+     * @return the clusters of the zoom within bounds.
+     */
+    public Set<? extends Cluster<T>> getClusters(double zoom, @NonNull LatLngBounds bounds) {
+        return getHierarchy().getClusters(zoom, bounds);
+    }
+
+    /**
+     * Builds the hierarchy if the items changed, one build at a time and without holding the lock
+     * of the items.
+     */
+    private Hierarchy<T> getHierarchy() {
+        synchronized (mBuildLock) {
+            T[] items;
+            int maxDistance;
+            int version;
+            synchronized (this) {
+                if (mBuiltVersion == mVersion ||
+                        (mDeferBuilds && mOnlyAdded && mItems.size() < mBuiltSize * 2))
+                    return mHierarchy;
+                //noinspection unchecked
+                items = (T[]) mItems.toArray(new ClusterItem[0]);
+                maxDistance = mMaxDistance;
+                version = mVersion;
+                // From here on, changes are to the hierarchy being built.
+                mOnlyAdded = true;
+            }
+            Hierarchy<T> hierarchy = new Hierarchy<>(items, maxDistance);
+            synchronized (this) {
+                mHierarchy = hierarchy;
+                mBuiltVersion = version;
+                mBuiltSize = items.length;
+            }
+            return hierarchy;
+        }
+    }
+
+    /**
+     * The clusters of every zoom. Items are ordered so the items of each cluster are consecutive,
+     * a cluster is then a range of them.
+     */
+    private static class Hierarchy<T extends ClusterItem> {
+        private final T[] mItems;
+        // By zoom, levels where nothing was clustered are shared with the zoom above.
+        private final Level[] mLevels = new Level[MAX_ZOOM + 2];
+
+        Hierarchy(T[] items, int maxDistance) {
+            int n = items.length;
+            Level leaves = new Level(n);
+            for (int i = 0; i < n; i++) {
+                LatLng position = items[i].getPosition();
+                leaves.x[i] = lngX(position.longitude);
+                leaves.y[i] = latY(position.latitude);
+                leaves.count[i] = 1;
+            }
+            int[] order = leaves.sort();
+            // Finest first.
+            List<Level> distinct = new ArrayList<>();
+            distinct.add(leaves);
+            mLevels[MAX_ZOOM + 1] = leaves;
+            Level level = leaves;
+            for (int zoom = MAX_ZOOM; zoom >= MIN_ZOOM; zoom--) {
+                // Half the span of NonHierarchicalDistanceBasedAlgorithm's search bounds.
+                double radius = maxDistance / Math.pow(2, zoom) / 256 / 2;
+                Level clusters = level.cluster(radius);
+                if (clusters != null) {
+                    distinct.add(clusters);
+                    level = clusters;
+                }
+                mLevels[zoom] = level;
+            }
+            // Lays out the items top down, each node's children take consecutive parts of its range.
+            Level top = distinct.get(distinct.size() - 1);
+            for (int i = 0, start = 0; i < top.size; start += top.count[i], i++)
+                top.start[i] = start;
+            for (int l = distinct.size() - 2; l >= 0; l--) {
+                Level child = distinct.get(l);
+                int[] cursor = distinct.get(l + 1).start.clone();
+                for (int i = 0; i < child.size; i++) {
+                    child.start[i] = cursor[child.parent[i]];
+                    cursor[child.parent[i]] += child.count[i];
+                }
+                child.parent = null;
+            }
+            //noinspection unchecked
+            mItems = (T[]) new ClusterItem[n];
+            for (int i = 0; i < n; i++)
+                mItems[leaves.start[i]] = items[order[i]];
+        }
+
+        Set<Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+            int z = (int) Math.max(MIN_ZOOM, Math.min(MAX_ZOOM + 1, Math.floor(zoom)));
+            Level level = mLevels[z];
+            Set<Cluster<T>> clusters = new HashSet<>();
+            if (level == null)
+                return clusters;
+            if (bounds == null) {
+                for (int i = 0; i < level.size; i++)
+                    clusters.add(new RangeCluster<>(this, level, i));
+                return clusters;
+            }
+            double minY = latY(bounds.northeast.latitude);
+            double maxY = latY(bounds.southwest.latitude);
+            double minX = lngX(bounds.southwest.longitude);
+            double maxX = lngX(bounds.northeast.longitude);
+            if (minX <= maxX) {
+                level.range(minX, minY, maxX, maxY, this, clusters);
+            } else {
+                // Across the antimeridian.
+                level.range(minX, minY, 1, maxY, this, clusters);
+                level.range(0, minY, maxX, maxY, this, clusters);
+            }
+            return clusters;
+        }
+    }
+
+    /**
+     * The nodes (clusters or single items) of a zoom level, in world coordinates from 0 to 1,
+     * sorted into a KD-tree.
+     */
+    private static class Level {
+        final int size;
+        final double[] x;
+        final double[] y;
+        final int[] count;
+        // Of the node's range of items.
+        final int[] start;
+        // Index of the containing node on the next distinct level up, while building.
+        int[] parent;
+
+        Level(int size) {
+            this.size = size;
+            x = new double[size];
+            y = new double[size];
+            count = new int[size];
+            start = new int[size];
+        }
+
+        /**
+         * Clusters the nodes within radius (on both axes) of each other, at their weighted centre.
+         * @return the clusters, null if no nodes were clustered.
+         */
+        Level cluster(double radius) {
+            double[] cx = new double[size];
+            double[] cy = new double[size];
+            int[] cCount = new int[size];
+            int clusters = 0;
+            int[] parent = new int[size];
+            boolean[] visited = new boolean[size];
+            RangeResult neighbours = new RangeResult();
+            for (int i = 0; i < size; i++) {
+                if (visited[i])
+                    continue;
+                visited[i] = true;
+                double wx = x[i] * count[i];
+                double wy = y[i] * count[i];
+                int weight = count[i];
+                parent[i] = clusters;
+                range(x[i] - radius, y[i] - radius, x[i] + radius, y[i] + radius, neighbours);
+                for (int k = 0; k < neighbours.size; k++) {
+                    int j = neighbours.indexes[k];
+                    if (visited[j])
+                        continue;
+                    visited[j] = true;
+                    wx += x[j] * count[j];
+                    wy += y[j] * count[j];
+                    weight += count[j];
+                    parent[j] = clusters;
+                }
+                cx[clusters] = wx / weight;
+                cy[clusters] = wy / weight;
+                cCount[clusters] = weight;
+                clusters++;
+            }
+            if (clusters == size)
+                return null;
+            Level level = new Level(clusters);
+            System.arraycopy(cx, 0, level.x, 0, clusters);
+            System.arraycopy(cy, 0, level.y, 0, clusters);
+            System.arraycopy(cCount, 0, level.count, 0, clusters);
+            int[] order = level.sort();
+            int[] index = new int[clusters];
+            for (int i = 0; i < clusters; i++)
+                index[order[i]] = i;
+            for (int i = 0; i < size; i++)
+                parent[i] = index[parent[i]];
+            this.parent = parent;
+            return level;
+        }
+
+        /**
+         * Sorts the nodes into a KD-tree, alternately split by x and y.
+         * @return the previous index of each node.
+         */
+        int[] sort() {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            sort(order, 0, size - 1, 0);
+            int[] sortedCount = new int[size];
+            for (int i = 0; i < size; i++)
+                sortedCount[i] = count[order[i]];
+            System.arraycopy(sortedCount, 0, count, 0, size);
+            return order;
+        }
+
+        private void sort(int[] order, int left, int right, int axis) {
+            if (right - left <= NODE_SIZE)
+                return;
+            int m = (left + right) >> 1;
+            select(order, m, left, right, axis);
+            sort(order, left, m - 1, 1 - axis);
+            sort(order, m + 1, right, 1 - axis);
+        }
+
+        /**
+         * Floyd-Rivest selection, puts the k-th smallest node (by axis) of [left, right] at k.
+         */
+        private void select(int[] order, int k, int left, int right, int axis) {
+            double[] v = axis == 0 ? x : y;
+            while (right > left) {
+                if (right - left > 600) {
+                    int n = right - left + 1;
+                    int m = k - left + 1;
+                    double z = Math.log(n);
+                    double s = 0.5 * Math.exp(2 * z / 3);
+                    double sd = 0.5 * Math.sqrt(z * s * (n - s) / n) * (m - n / 2.0 < 0 ? -1 : 1);
+                    int newLeft = (int) Math.max(left, Math.floor(k - m * s / n + sd));
+                    int newRight = (int) Math.min(right, Math.floor(k + (n - m) * s / n + sd));
+                    select(order, k, newLeft, newRight, axis);
+                }
+                double t = v[k];
+                int i = left;
+                int j = right;
+                swap(order, left, k);
+                if (v[right] > t)
+                    swap(order, left, right);
+                while (i < j) {
+                    swap(order, i, j);
+                    i++;
+                    j--;
+                    while (v[i] < t)
+                        i++;
+                    while (v[j] > t)
+                        j--;
+                }
+                if (v[left] == t) {
+                    swap(order, left, j);
+                } else {
+                    j++;
+                    swap(order, j, right);
+                }
+                if (j <= k)
+                    left = j + 1;
+                if (k <= j)
+                    right = j - 1;
+            }
+        }
+
+        private void swap(int[] order, int i, int j) {
+            int o = order[i];
+            order[i] = order[j];
+            order[j] = o;
+            double t = x[i];
+            x[i] = x[j];
+            x[j] = t;
+            t = y[i];
+            y[i] = y[j];
+            y[j] = t;
+        }
+
+        /**
+         * Sets result to the indexes of the nodes in the rectangle.
+         */
+        void range(double minX, double minY, double maxX, double maxY, RangeResult result) {
+            result.size = 0;
+            int[] stack = result.stack;
+            int top = 0;
+            stack[top++] = 0;
+            stack[top++] = size - 1;
+            stack[top++] = 0;
+            while (top > 0) {
+                int axis = stack[--top];
+                int right = stack[--top];
+                int left = stack[--top];
+                if (right - left <= NODE_SIZE) {
+                    for (int i = left; i <= right; i++) {
+                        if (x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY)
+                            result.add(i);
+                    }
+                    continue;
+                }
+                int m = (left + right) >> 1;
+                double v = axis == 0 ? x[m] : y[m];
+                if (x[m] >= minX && x[m] <= maxX && y[m] >= minY && y[m] <= maxY)
+                    result.add(m);
+                if (top + 6 > stack.length)
+                    stack = result.stack = Arrays.copyOf(stack, stack.length * 2);
+                if ((axis == 0 ? minX : minY) <= v) {
+                    stack[top++] = left;
+                    stack[top++] = m - 1;
+                    stack[top++] = 1 - axis;
+                }
+                if ((axis == 0 ? maxX : maxY) >= v) {
+                    stack[top++] = m + 1;
+                    stack[top++] = right;
+                    stack[top++] = 1 - axis;
+                }
+            }
+        }
+
+        <T extends ClusterItem> void range(double minX, double minY, double maxX, double maxY,
+                                           Hierarchy<T> hierarchy, Set<Cluster<T>> clusters) {
+            RangeResult result = new RangeResult();
+            range(minX, minY, maxX, maxY, result);
+            for (int i = 0; i < result.size; i++)
+                clusters.add(new RangeCluster<>(hierarchy, this, result.indexes[i]));
+        }
+    }
+
+    /**
+     * Node indexes found by a range search, reused between searches.
+     */
+    private static class RangeResult {
+        int[] indexes = new int[16];
+        int size = 0;
+        int[] stack = new int[64 * 3];
+
+        void add(int index) {
+            if (size == indexes.length)
+                indexes = Arrays.copyOf(indexes, size * 2);
+            indexes[size++] = index;
+        }
+    }
+
+    /**
+     * A node of a level, equal to the same node of the same hierarchy.
+     */
+    private static class RangeCluster<T extends ClusterItem> implements Cluster<T> {
+        private final Hierarchy<T> mHierarchy;
+        private final Level mLevel;
+        private final int mIndex;
+        private LatLng mPosition = null;
+
+        RangeCluster(Hierarchy<T> hierarchy, Level level, int index) {
+            mHierarchy = hierarchy;
+            mLevel = level;
+            mIndex = index;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            if (mPosition == null) {
+                if (mLevel.count[mIndex] == 1)
+                    mPosition = mHierarchy.mItems[mLevel.start[mIndex]].getPosition();
+                else
+                    mPosition = new LatLng(yLat(mLevel.y[mIndex]), xLng(mLevel.x[mIndex]));
+            }
+            return mPosition;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            int start = mLevel.start[mIndex];
+            return Collections.unmodifiableList(
+                    Arrays.asList(mHierarchy.mItems).subList(start, start + mLevel.count[mIndex]));
+        }
+
+        @Override
+        public int getSize() {
+            return mLevel.count[mIndex];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RangeCluster))
+                return false;
+            RangeCluster other = (RangeCluster) o;
+            return mLevel == other.mLevel && mIndex == other.mIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mLevel) * 31 + mIndex;
+        }
+    }
+
+    private static LatLngBounds addMargin(LatLngBounds bounds, double margin) {
+        double latSpan = bounds.northeast.latitude - bounds.southwest.latitude;
+        double lngSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (lngSpan < 0)
+            lngSpan += 360;
+        double south = Math.max(-90, bounds.southwest.latitude - latSpan * margin);
+        double north = Math.min(90, bounds.northeast.latitude + latSpan * margin);
+        double west;
+        double east;
+        if (lngSpan * (1 + 2 * margin) >= 360) {
+            west = -180;
+            // LatLng wraps 180 to -180. Math.nextDown() needs API 24.
+            east = Math.nextAfter(180.0, Double.NEGATIVE_INFINITY);
+        } else {
+            west = bounds.southwest.longitude - lngSpan * margin;
+            east = bounds.northeast.longitude + lngSpan * margin;
+            // Across the antimeridian, as getClusters() expects rather than counting on LatLng.
+            if (west < -180)
+                west += 360;
+            if (east >= 180)
+                east -= 360;
+        }
+        return new LatLngBounds(new LatLng(south, west), new LatLng(north, east));
+    }
+
+    private static double lngX(double lng) {
+        return lng / 360 + 0.5;
+    }
+
+    private static double latY(double lat) {
+        double sin = Math.sin(Math.toRadians(lat));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+        return y < 0 ? 0 : y > 1 ? 1 : y;
+    }
+
+    private static double xLng(double x) {
+        return (x - 0.5) * 360;
+    }
+
+    private static double yLat(double y) {
+        return Math.toDegrees(Math.atan(Math.exp((0.5 - y) * 2 * Math.PI))) * 2 - 90;
+    }
+}
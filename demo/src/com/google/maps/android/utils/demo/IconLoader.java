@@ -0,0 +1,158 @@
+package com.google.maps.android.utils.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads marker icons on a small pool of background threads. Markers in the viewport are loaded
+ * first, requests for a key that's already loading share the one load, and the loads of markers
+ * that were clustered away are dropped before they start.
+ *
+ * All methods are called on the main thread, where the icons are delivered.
+ */
+class IconLoader {
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * An icon to load, for a marker at position. Requests with equal keys load the same icon.
+     */
+    abstract static class Request {
+        final Object key;
+        final LatLng position;
+
+        Request(@NonNull Object key, @NonNull LatLng position) {
+            this.key = key;
+            this.position = position;
+        }
+
+        @WorkerThread
+        abstract BitmapDescriptor load();
+
+        /**
+         * @param icon the loaded icon, null if the load failed.
+         */
+        @MainThread
+        abstract void deliver(BitmapDescriptor icon);
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        // Loads the icon, the latest request with the key gets it.
+        private final Request mRequest;
+        private Request mLatest;
+        private final long mSequence;
+        private volatile boolean mVisible;
+        private volatile boolean mCancelled = false;
+
+        Task(Request request, long sequence) {
+            mRequest = request;
+            mLatest = request;
+            mSequence = sequence;
+            mVisible = isVisible(request.position);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled)
+                return;
+            BitmapDescriptor icon = mRequest.load();
+            mMainHandler.post(() -> {
+                if (mPending.get(mRequest.key) == this)
+                    mPending.remove(mRequest.key);
+                if (!mCancelled)
+                    mLatest.deliver(icon);
+            });
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (mVisible != other.mVisible)
+                return mVisible ? -1 : 1;
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor mExecutor;
+    // Queued and running loads by key.
+    private final Map<Object, Task> mPending = new HashMap<>();
+    private LatLngBounds mViewport = null;
+    private long mSequence = 0;
+
+    IconLoader() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, mQueue);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    void load(@NonNull Request request) {
+        Task task = mPending.get(request.key);
+        if (task != null && !task.mCancelled) {
+            task.mLatest = request;
+            return;
+        }
+        task = new Task(request, mSequence++);
+        mPending.put(request.key, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Cancels the loads of keys that aren't in keys.
+     */
+    void retain(@NonNull Set<Object> keys) {
+        Iterator<Map.Entry<Object, Task>> it = mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, Task> entry = it.next();
+            if (!keys.contains(entry.getKey())) {
+                entry.getValue().mCancelled = true;
+                mQueue.remove(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Loads for markers in the viewport are run first.
+     */
+    void setViewport(LatLngBounds viewport) {
+        mViewport = viewport;
+        // Queued tasks are reordered by taking them out and putting them back.
+        List<Runnable> queued = new ArrayList<>();
+        mQueue.drainTo(queued);
+        for (Runnable runnable : queued) {
+            Task task = (Task) runnable;
+            task.mVisible = isVisible(task.mRequest.position);
+            mExecutor.execute(task);
+        }
+    }
+
+    void cancelAll() {
+        for (Task task : mPending.values())
+            task.mCancelled = true;
+        mPending.clear();
+        mQueue.clear();
+    }
+
+    private boolean isVisible(LatLng position) {
+        return mViewport == null || mViewport.contains(position);
+    }
+}
@@ -37,6 +37,7 @@ import com.google.android.material.textfield.TextInputLayout;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.google.maps.android.utils.demo.model.MediaFolder;
 import com.google.maps.android.utils.demo.repository.LocationDataRepository;
 
 import org.jetbrains.annotations.NotNull;
@@ -50,6 +51,7 @@ import java.util.List;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Observer;
 
 public class MainActivity extends Activity {
     public static final String TAG = "MainActivity";
@@ -60,6 +62,7 @@ public class MainActivity extends Activity {
     public static final String END_DATE_ID = "end date";
     public static final String LOCATION_HISTORY_FILE_ID = "location history file";
     public static final String SELECTED_FOLDERS_ID = "selected folders";
+    public static final String MAX_LOCATION_ERROR_ID = "max location error";
 
     private Calendar startDateCalendar = Calendar.getInstance();
     private Calendar endDateCalendar = Calendar.getInstance();
@@ -69,6 +72,10 @@ public class MainActivity extends Activity {
     private List<String> mSelectedFolders = new ArrayList<>(Arrays.asList(
             "Camera", "Pictures", "Snapchat"));
     private List<String> mAllFolders;
+    private int mMaxLocationError = LocationDataRepository.DEFAULT_MAX_LOCATION_ERROR;
+    private List<MediaFolder> mFolders;
+    private boolean mShowFoldersWhenLoaded = false;
+    private final Observer<List<MediaFolder>> mFoldersObserver = this::onFoldersLoaded;
     private Gson gson = new GsonBuilder().serializeNulls().create();
 
     @Override
@@ -76,6 +83,8 @@ public class MainActivity extends Activity {
         super.onCreate(savedInstanceState);
 
         mLocationDataRepository = LocationDataRepository.init(getApplication());
+        // Not a LifecycleOwner, removed in onDestroy().
+        mLocationDataRepository.getFolders().observeForever(mFoldersObserver);
 
         setContentView(R.layout.main);
 
@@ -87,6 +96,7 @@ public class MainActivity extends Activity {
         startDateCalendar.add(Calendar.MONTH, -6);
         startDateCalendar.setTimeInMillis(pref.getLong(START_DATE_ID, startDateCalendar.getTimeInMillis()));
         endDateCalendar.setTimeInMillis(pref.getLong(END_DATE_ID, endDateCalendar.getTimeInMillis()));
+        mMaxLocationError = pref.getInt(MAX_LOCATION_ERROR_ID, mMaxLocationError);
         for (Pair<TextInputEditText, Calendar> calendarTextPair : Arrays.asList(
                 Pair.create(startDateEditText, startDateCalendar),
                 Pair.create(endDateEditText, endDateCalendar))) {
@@ -123,9 +133,12 @@ public class MainActivity extends Activity {
                 }
                 intent.putExtra(Intent.EXTRA_LOCAL_ONLY, true);
                 intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                intent.setType("application/json");
+                // Either the extracted json or the whole Takeout zip.
+                intent.setType("*/*");
+                intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+                        "application/json", "application/zip", "application/x-zip-compressed" });
                 // intent.setComponent("Downloads");
-                intent = Intent.createChooser(intent, "Choose location history json file");
+                intent = Intent.createChooser(intent, "Choose location history json or Takeout zip file");
                 startActivityForResult(intent, PICKFILE_RESULT_CODE);
             }
         );
@@ -153,22 +166,45 @@ public class MainActivity extends Activity {
 
     private void onLocationDataParamsUpdated() {
         if (storagePermissionGranted()) {
-            if (mAllFolders == null) {
-                // Init selected folders list
-                mAllFolders = mLocationDataRepository.getFolderList();
-                mSelectedFolders.retainAll(mAllFolders);
-                mSelectedFoldersExitText.setText(TextUtils.join(", ", mSelectedFolders));
-            }
-
             Editable e = locationHistoryExitText.getText();
             Uri locationFileUri = Uri.parse(e != null ? e.toString() : "");
             mLocationDataRepository.setDataSource(
                     startDateCalendar.getTimeInMillis(),
                     endDateCalendar.getTimeInMillis(),
-                    locationFileUri, mSelectedFolders);
+                    locationFileUri, mSelectedFolders, mMaxLocationError);
+
+            // Queried in the background, see onFoldersLoaded(). After the data load is started,
+            // which syncs the media index for both.
+            if (mAllFolders == null)
+                mLocationDataRepository.loadFolders();
+        }
+    }
+
+    private void onFoldersLoaded(List<MediaFolder> folders) {
+        if (folders == null)
+            return;
+        boolean firstLoad = mAllFolders == null;
+        mFolders = folders;
+        mAllFolders = new ArrayList<>();
+        for (MediaFolder folder : folders)
+            mAllFolders.add(folder.name);
+        if (firstLoad) {
+            // Init selected folders list
+            mSelectedFolders.retainAll(mAllFolders);
+            mSelectedFoldersExitText.setText(TextUtils.join(", ", mSelectedFolders));
+        }
+        if (mShowFoldersWhenLoaded) {
+            mShowFoldersWhenLoaded = false;
+            showSelectFoldersDialog();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLocationDataRepository.getFolders().removeObserver(mFoldersObserver);
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -178,6 +214,7 @@ public class MainActivity extends Activity {
         Editable e = locationHistoryExitText.getText();
         editor.putString(LOCATION_HISTORY_FILE_ID, e != null ? e.toString() : "");
         editor.putString(SELECTED_FOLDERS_ID, gson.toJson(mSelectedFolders));
+        editor.putInt(MAX_LOCATION_ERROR_ID, mMaxLocationError);
         editor.apply();
     }
 
@@ -193,22 +230,43 @@ public class MainActivity extends Activity {
 
     private void showSelectFoldersDialog()
     {
-        if (storagePermissionGranted()) {
+        if (storagePermissionGranted() && mAllFolders == null) {
+            mShowFoldersWhenLoaded = true;
+            mLocationDataRepository.loadFolders();
+            Toast.makeText(this, "Loading folders...", Toast.LENGTH_SHORT).show();
+        } else if (storagePermissionGranted()) {
             AlertDialog.Builder builder = new AlertDialog.Builder(this);
             builder.setTitle("Select Folders");
-            final String[] items = mAllFolders.toArray(new String[] {});
+            // The list may be updated while the dialog is open.
+            final List<String> folders = mAllFolders;
+            final String[] items = new String[mFolders.size()];
+            for (int i = 0; i < items.length; i++) {
+                MediaFolder folder = mFolders.get(i);
+                // Locations are only known for media that's been scanned by a load.
+                if (folder.scannedCount == 0)
+                    items[i] = folder.name + " (" + folder.mediaCount + ")";
+                else if (folder.scannedCount < folder.mediaCount)
+                    items[i] = folder.name + " (" + folder.mediaCount + ", " + folder.geotaggedCount +
+                            " of " + folder.scannedCount + " scanned with location)";
+                else
+                    items[i] = folder.name + " (" + folder.mediaCount + ", " + folder.geotaggedCount +
+                            " with location)";
+            }
             final boolean[] checkedItems = new boolean[items.length];
-            for (String folder : mSelectedFolders)
-                checkedItems[mAllFolders.indexOf(folder)] = true;
+            for (String folder : mSelectedFolders) {
+                int index = mAllFolders.indexOf(folder);
+                if (index >= 0)
+                    checkedItems[index] = true;
+            }
             builder.setMultiChoiceItems(items, checkedItems,
                     (dialog, which, isChecked) -> checkedItems[which] = isChecked);
             String positiveText = getString(android.R.string.ok);
             builder.setPositiveButton(positiveText,
                     (dialog, which) -> {
                             mSelectedFolders.clear();
-                            for(int i = 0; i < mAllFolders.size(); i++)
+                            for(int i = 0; i < folders.size(); i++)
                                 if (checkedItems[i])
-                                    mSelectedFolders.add(mAllFolders.get(i));
+                                    mSelectedFolders.add(folders.get(i));
                             mSelectedFoldersExitText.setText(TextUtils.join(", ", mSelectedFolders));
                             onLocationDataParamsUpdated();
                             dialog.dismiss();
@@ -20,12 +20,14 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -34,13 +36,13 @@ import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.gson.Gson;
@@ -51,14 +53,15 @@ import com.google.maps.android.clustering.ClusterManager;
 import com.google.maps.android.clustering.view.DefaultClusterRenderer;
 import com.google.maps.android.ui.IconGenerator;
 import com.google.maps.android.utils.demo.model.LocationData;
-import com.google.maps.android.utils.demo.model.LocationHistoryItem;
 import com.google.maps.android.utils.demo.model.MediaItem;
 import com.google.maps.android.utils.demo.repository.LocationDataRepository;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 
@@ -73,14 +76,26 @@ public class MapClusterActivity extends BaseDemoActivity implements
     public static final String SHOW_TRAVELLED_LINE_ID = "show travelled line";
     private static final String FIRST_LOAD_ID = "first load";
     private static final String MAP_CAMERA_POSITION_ID = "map camera position";
+    private static final int CLUSTER_ICON_CACHE_SIZE = 64;
 
     private ClusterManager<MediaItem> mClusterManager;
-    private Polyline mPolyline;
+    private HierarchicalClusterAlgorithm<MediaItem> mClusterAlgorithm;
+    private MediaItemRenderer mRenderer;
+    private TravelledLine mTravelledLine;
+    private ThumbnailCache mThumbnails;
     private ProgressBar mProgressBar;
     private boolean mShowSatellite = false;
     private boolean mShowPhotos = true;
     private boolean mShowTravelledLine = true;
     private boolean mFirstLoad = true;
+    private int mDisplayedLoadId = -1;
+    private int mDisplayedRevision = 0;
+    private int mDisplayedItemCount = 0;
+    // Items not in the data are removed when the data is complete.
+    private boolean mRemoveStaleItems = false;
+    // The cluster hierarchy hasn't been built with all the items yet.
+    private boolean mClusterBuildsDeferred = false;
+    private final LongSparseArray<MediaItem> mClusteredItems = new LongSparseArray<>();
     private CameraPosition mCameraPosition;
     private Gson gson = new GsonBuilder().serializeNulls().create();
     private final UpdatableToast mToast = new UpdatableToast(this);
@@ -121,6 +136,15 @@ public class MapClusterActivity extends BaseDemoActivity implements
         private final ImageView mImageView;
         private final ImageView mClusterImageView;
         private final int mDimension;
+        private final IconLoader mIconLoader = new IconLoader();
+        // Composed cluster icons, by LoadClusterIconRequest.getKey().
+        private final LruCache<String, BitmapDescriptor> mClusterIcons = new LruCache<>(CLUSTER_ICON_CACHE_SIZE);
+        private final ThreadLocal<Bitmap> mCompositeBitmap = new ThreadLocal<Bitmap>() {
+            @Override
+            protected Bitmap initialValue() {
+                return Bitmap.createBitmap(mDimension, mDimension, Bitmap.Config.ARGB_8888);
+            }
+        };
 
         public MediaItemRenderer() {
             super(getApplicationContext(), getMap(), mClusterManager);
@@ -135,35 +159,51 @@ public class MapClusterActivity extends BaseDemoActivity implements
             int padding = (int) getResources().getDimension(R.dimen.custom_profile_padding);
             mImageView.setPadding(padding, padding, padding, padding);
             mIconGenerator.setContentView(mImageView);
+            mThumbnails = ThumbnailCache.get(getApplicationContext(), mDimension);
         }
 
         private Bitmap getThumbnail(MediaItem mediaItem) {
-            Bitmap thumbnail;
-            if (mediaItem.type == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
-                thumbnail = MediaStore.Images.Thumbnails.getThumbnail(
-                        getContentResolver(), mediaItem.mId, MediaStore.Images.Thumbnails.MICRO_KIND,
-                        new BitmapFactory.Options());
-            }
-            else {
-                thumbnail = MediaStore.Video.Thumbnails.getThumbnail(
-                        getContentResolver(), mediaItem.mId, MediaStore.Video.Thumbnails.MICRO_KIND,
-                        new BitmapFactory.Options());
-            }
-            return thumbnail;
+            return mThumbnails.getThumbnail(mediaItem);
         }
 
         @Override
         protected void onBeforeClusterItemRendered(MediaItem mediaItem, MarkerOptions markerOptions) {
             // Hide default marker, load single bitmap on background thread and unhide.
             markerOptions.visible(false);
-            new LoadClusterItemIconAsync(this, mediaItem).execute();
+            mIconLoader.load(new LoadClusterItemIconRequest(this, mediaItem));
         }
 
         @Override
         protected void onBeforeClusterRendered(Cluster<MediaItem> cluster, MarkerOptions markerOptions) {
+            String key = LoadClusterIconRequest.getKey(cluster);
+            BitmapDescriptor icon = mClusterIcons.get(key);
+            if (icon != null) {
+                markerOptions.icon(icon);
+                return;
+            }
             // Hide default marker, load multi-bitmap on background thread and unhide.
             markerOptions.visible(false);
-            new LoadClusterIconAsync(this, cluster).execute();
+            mIconLoader.load(new LoadClusterIconRequest(this, cluster, key));
+        }
+
+        @Override
+        public void onClustersChanged(Set<? extends Cluster<MediaItem>> clusters) {
+            // Drop the icon loads of markers that are going away.
+            Set<Object> keys = new HashSet<>();
+            for (Cluster<MediaItem> cluster : clusters) {
+                if (shouldRenderAsCluster(cluster)) {
+                    keys.add(LoadClusterIconRequest.getKey(cluster));
+                } else {
+                    for (MediaItem item : cluster.getItems())
+                        keys.add(LoadClusterItemIconRequest.getKey(item));
+                }
+            }
+            mIconLoader.retain(keys);
+            super.onClustersChanged(clusters);
+        }
+
+        private void onCameraIdle(LatLngBounds viewport) {
+            mIconLoader.setViewport(viewport);
         }
 
         @Override
@@ -176,19 +216,18 @@ public class MapClusterActivity extends BaseDemoActivity implements
         }
     }
 
-    private static class LoadClusterIconAsync extends AsyncTask<Void, Void, Void> {
+    private static class LoadClusterIconRequest extends IconLoader.Request {
         private WeakReference<MediaItemRenderer> mRenderer;
         private Cluster<MediaItem> cluster;
-        private Drawable iconDrawable;
 
-        private LoadClusterIconAsync(MediaItemRenderer renderer, Cluster<MediaItem> cluster) {
-            super();
+        private LoadClusterIconRequest(MediaItemRenderer renderer, Cluster<MediaItem> cluster, String key) {
+            super(key, cluster.getPosition());
             this.mRenderer = new WeakReference<>(renderer);
             this.cluster = cluster;
         }
 
         @Override
-        protected Void doInBackground(Void... v) {
+        protected BitmapDescriptor load() {
             MediaItemRenderer renderer = mRenderer.get();
             if (renderer == null)
                 return null;
@@ -202,60 +241,90 @@ public class MapClusterActivity extends BaseDemoActivity implements
                 if (drawables.size() == 4)
                     break;
             }
-            iconDrawable = new MultiDrawable(drawables);
-            iconDrawable.setBounds(0, 0, renderer.mDimension, renderer.mDimension);
-            return null;
+            Drawable multiDrawable = new MultiDrawable(drawables);
+            multiDrawable.setBounds(0, 0, renderer.mDimension, renderer.mDimension);
+            // The thumbnails are composed into this thread's bitmap, makeIcon() copies it.
+            Bitmap composite = renderer.mCompositeBitmap.get();
+            composite.eraseColor(Color.TRANSPARENT);
+            multiDrawable.draw(new Canvas(composite));
+            BitmapDescriptor icon;
+            synchronized (renderer.mClusterIconGenerator) {
+                renderer.mClusterImageView.setImageBitmap(composite);
+                icon = BitmapDescriptorFactory.fromBitmap(
+                        renderer.mClusterIconGenerator.makeIcon(String.valueOf(cluster.getSize())));
+                renderer.mClusterImageView.setImageDrawable(null);
+            }
+            renderer.mClusterIcons.put((String) key, icon);
+            return icon;
         }
 
         @Override
-        protected void onPostExecute(Void v) {
-            super.onPostExecute(v);
+        protected void deliver(BitmapDescriptor icon) {
             MediaItemRenderer renderer = mRenderer.get();
-            if (renderer == null)
+            if (renderer == null || icon == null)
                 return;
             Marker marker = renderer.getMarker(cluster);
             if (marker != null) {
-                renderer.mClusterImageView.setImageDrawable(iconDrawable);
-                Bitmap icon = renderer.mClusterIconGenerator.makeIcon(String.valueOf(cluster.getSize()));
-                marker.setIcon(BitmapDescriptorFactory.fromBitmap(icon));
+                marker.setIcon(icon);
                 marker.setVisible(true);
             }
         }
+
+        /**
+         * Clusters of the same size with the same first (drawn) items, unedited, have the same icon.
+         */
+        private static String getKey(Cluster<MediaItem> cluster) {
+            StringBuilder key = new StringBuilder().append(cluster.getSize());
+            int count = 0;
+            for (MediaItem item : cluster.getItems()) {
+                key.append(count == 0 ? ':' : ',').append(LoadClusterItemIconRequest.getKey(item));
+                if (++count == 4)
+                    break;
+            }
+            return key.toString();
+        }
     }
 
-    private static class LoadClusterItemIconAsync extends AsyncTask<Void, Void, Void> {
+    private static class LoadClusterItemIconRequest extends IconLoader.Request {
         private WeakReference<MediaItemRenderer> mRenderer;
         private MediaItem mediaItem;
-        private Drawable iconDrawable;
 
-        private LoadClusterItemIconAsync(MediaItemRenderer renderer, MediaItem mediaItem) {
-            super();
+        private LoadClusterItemIconRequest(MediaItemRenderer renderer, MediaItem mediaItem) {
+            super(getKey(mediaItem), mediaItem.getPosition());
             this.mRenderer = new WeakReference<>(renderer);
             this.mediaItem = mediaItem;
         }
 
+        /**
+         * An edited item has a new thumbnail, so a load of its old one isn't reused.
+         */
+        private static String getKey(MediaItem mediaItem) {
+            return mediaItem.mId + "_" + mediaItem.dateModified;
+        }
+
         @Override
-        protected Void doInBackground(Void... v) {
+        protected BitmapDescriptor load() {
             MediaItemRenderer renderer = mRenderer.get();
             if (renderer == null)
                 return null;
             Bitmap thumbnail = renderer.getThumbnail(mediaItem);
-            iconDrawable = new BitmapDrawable(renderer.getResources(), thumbnail);
-            return null;
+            synchronized (renderer.mIconGenerator) {
+                renderer.mImageView.setImageBitmap(thumbnail);
+                Bitmap icon = renderer.mIconGenerator.makeIcon();
+                renderer.mImageView.setImageDrawable(null);
+                return BitmapDescriptorFactory.fromBitmap(icon);
+            }
         }
 
         @Override
-        protected void onPostExecute(Void v) {
-            super.onPostExecute(v);
+        protected void deliver(BitmapDescriptor icon) {
             MediaItemRenderer renderer = mRenderer.get();
-            if (renderer == null)
+            if (renderer == null || icon == null)
                 return;
             Marker marker = renderer.getMarker(mediaItem);
             if (marker != null) {
-                renderer.mImageView.setImageDrawable(iconDrawable);
-                Bitmap icon = renderer.mIconGenerator.makeIcon();
                 // marker.setTitle(mediaItem.mediaPath);
-                marker.setIcon(BitmapDescriptorFactory.fromBitmap(icon));
+                marker.setIcon(icon);
                 marker.setVisible(true);
             }
         }
@@ -345,14 +414,15 @@ public class MapClusterActivity extends BaseDemoActivity implements
         );
         FloatingActionButton photoFab = findViewById(R.id.photoFab);
         photoFab.setOnClickListener(view -> {
-                mShowPhotos = !mShowPhotos;
-                refreshLocationData();
+                setShowPhotos(!mShowPhotos);
             }
         );
         FloatingActionButton locationFab = findViewById(R.id.locationFab);
         locationFab.setOnClickListener(view -> {
                 mShowTravelledLine = !mShowTravelledLine;
-                refreshLocationData();
+                // Only the line, the clusters aren't touched.
+                if (mTravelledLine != null)
+                    mTravelledLine.setVisible(mShowTravelledLine);
             }
         );
 
@@ -367,6 +437,15 @@ public class MapClusterActivity extends BaseDemoActivity implements
     protected void onPause() {
         super.onPause();
         mToast.stop();
+        if (mThumbnails != null)
+            Log.i(TAG, "Thumbnails: " + mThumbnails.getStats());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mRenderer != null)
+            mRenderer.mIconLoader.cancelAll();
     }
 
     @Override
@@ -388,8 +467,20 @@ public class MapClusterActivity extends BaseDemoActivity implements
         getMap().moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(51.6605, 4.315), 4.5f));
 
         mClusterManager = new ClusterManager<>(this, getMap());
-        mClusterManager.setRenderer(new MediaItemRenderer());
-        getMap().setOnCameraIdleListener(mClusterManager);
+        mClusterAlgorithm = new HierarchicalClusterAlgorithm<>();
+        mClusterManager.setAlgorithm(mClusterAlgorithm);
+        mRenderer = new MediaItemRenderer();
+        mClusterManager.setRenderer(mRenderer);
+        mTravelledLine = new TravelledLine(getMap(), new PolylineOptions().color(0xFFFF0000).width(2));
+        getMap().setOnCameraIdleListener(() -> {
+                LatLngBounds viewport = getMap().getProjection().getVisibleRegion().latLngBounds;
+                // Only the clusters around the viewport are made into markers.
+                mClusterAlgorithm.setViewport(viewport);
+                mRenderer.onCameraIdle(viewport);
+                mClusterManager.onCameraIdle();
+                mTravelledLine.onCameraIdle();
+            }
+        );
         getMap().setOnMarkerClickListener(mClusterManager);
         getMap().setOnInfoWindowClickListener(mClusterManager);
         mClusterManager.setOnClusterClickListener(this);
@@ -420,28 +511,109 @@ public class MapClusterActivity extends BaseDemoActivity implements
         LocationData locationData = repo.getLocationData().getValue();
         if (locationData == null)
             return;
-        mClusterManager.clearItems();
-        if (mShowPhotos) {
-            for (MediaItem item : locationData.mMediaItems) {
-                mClusterManager.addItem(item);
-            }
-        }
-        mClusterManager.cluster();
-        if (mPolyline != null) {
-            mPolyline.remove();
-        }
-        if (mShowTravelledLine) {
-            PolylineOptions polyLineOptions = new PolylineOptions();
-            polyLineOptions.color(0xFFFF0000);
-            polyLineOptions.width(2);
-            for (LocationHistoryItem item : locationData.locationHistory.values())
-                polyLineOptions.add(item.latLng);
-            mPolyline = getMap().addPolyline(polyLineOptions);
-        }
+        if (mShowPhotos)
+            updateClusterItems(locationData);
+        if (!locationData.complete)
+            return;
+        // Simplified in the background, the same history isn't simplified again.
+        mTravelledLine.setHistory(locationData.locationHistory);
+        mTravelledLine.setVisible(mShowTravelledLine);
         if (mFirstLoad) {
             mToast.show("Displaying " + locationData.mMediaItems.size() + " media items, " +
                             locationData.locationHistory.size() + " location points");
             mFirstLoad = false;
         }
     }
+
+    /**
+     * Applies the differences between the clustered items and the data, so the markers of unchanged
+     * items stay as they are.
+     */
+    private void updateClusterItems(LocationData locationData) {
+        boolean changed = false;
+        // Media arrives in batches while loading, and refreshes list the items that were removed.
+        // Otherwise (another load, or a missed revision) items that are no longer in the data are
+        // removed once it's complete, so the map doesn't empty while the new data loads.
+        int revision = locationData.revision;
+        // Data published while loading only adds items to what was published before.
+        int start = locationData.loadId == mDisplayedLoadId && revision == mDisplayedRevision &&
+                locationData.newItemsStart == mDisplayedItemCount ? locationData.newItemsStart : 0;
+        if (locationData.loadId != mDisplayedLoadId ||
+                (revision != mDisplayedRevision && revision != mDisplayedRevision + 1)) {
+            mRemoveStaleItems = true;
+        } else if (revision == mDisplayedRevision + 1) {
+            for (long id : locationData.removedIds) {
+                MediaItem item = mClusteredItems.get(id);
+                if (item != null) {
+                    mClusterManager.removeItem(item);
+                    mClusteredItems.remove(id);
+                    changed = true;
+                }
+            }
+        }
+        mDisplayedLoadId = locationData.loadId;
+        mDisplayedRevision = revision;
+        List<MediaItem> newItems = new ArrayList<>();
+        List<MediaItem> mediaItems = locationData.mMediaItems;
+        for (int i = start; i < mediaItems.size(); i++) {
+            MediaItem item = mediaItems.get(i);
+            MediaItem clustered = mClusteredItems.get(item.mId);
+            if (clustered == item)
+                continue;
+            if (clustered != null) {
+                // An edited item keeps its position, but its thumbnail changes.
+                if (clustered.mPosition.equals(item.mPosition) && clustered.mediaPath.equals(item.mediaPath) &&
+                        clustered.dateModified == item.dateModified)
+                    continue;
+                mClusterManager.removeItem(clustered);
+            }
+            mClusteredItems.put(item.mId, item);
+            newItems.add(item);
+        }
+        mDisplayedItemCount = mediaItems.size();
+        if (!newItems.isEmpty()) {
+            mClusterManager.addItems(newItems);
+            changed = true;
+        }
+        if (mRemoveStaleItems && locationData.complete) {
+            mRemoveStaleItems = false;
+            LongSparseArray<MediaItem> items = new LongSparseArray<>(locationData.mMediaItems.size());
+            for (MediaItem item : locationData.mMediaItems)
+                items.put(item.mId, item);
+            for (int i = mClusteredItems.size() - 1; i >= 0; i--) {
+                if (items.get(mClusteredItems.keyAt(i)) == null) {
+                    mClusterManager.removeItem(mClusteredItems.valueAt(i));
+                    mClusteredItems.removeAt(i);
+                    changed = true;
+                }
+            }
+        }
+        // Batches published while loading don't each rebuild the cluster hierarchy, the complete data
+        // builds it with all the items.
+        boolean deferBuilds = !locationData.complete;
+        if (changed || (mClusterBuildsDeferred && !deferBuilds)) {
+            mClusterAlgorithm.setDeferBuilds(deferBuilds);
+            mClusterBuildsDeferred = deferBuilds;
+            mClusterManager.cluster();
+        }
+    }
+
+    private void setShowPhotos(boolean showPhotos) {
+        mShowPhotos = showPhotos;
+        // Applied when the map is ready.
+        if (mClusterManager == null)
+            return;
+        if (showPhotos) {
+            LocationData locationData = LocationDataRepository.getInstance().getLocationData().getValue();
+            if (locationData != null) {
+                // All items are added again.
+                mDisplayedLoadId = -1;
+                updateClusterItems(locationData);
+            }
+        } else {
+            mClusterManager.clearItems();
+            mClusteredItems.clear();
+            mClusterManager.cluster();
+        }
+    }
 }
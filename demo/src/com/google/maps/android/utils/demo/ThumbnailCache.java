@@ -0,0 +1,198 @@
+package com.google.maps.android.utils.demo;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import com.google.maps.android.utils.demo.model.MediaItem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Marker thumbnails, scaled to the marker size. Kept in an LRU memory cache, backed by a disk
+ * cache of the scaled thumbnails keyed by media _ID and DATE_MODIFIED, so MediaStore is only asked
+ * for a thumbnail the first time it's shown, or after the media has been edited.
+ *
+ * Shared between activities (see {@link #get}), {@link #getStats} gives the hit rates.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final String CACHE_DIR = "thumbnails";
+    // Fraction of the app's memory class used by the memory cache.
+    private static final int MEMORY_DIVISOR = 8;
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static ThumbnailCache mSingleton = null;
+
+    private final Context mContext;
+    private final int mDimension;
+    private final File mDir;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    // Size of the files in mDir, -1 until the first write lists them.
+    private long mDiskBytes = -1;
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private ThumbnailCache(Context context, int dimension) {
+        mContext = context.getApplicationContext();
+        mDimension = dimension;
+        mDir = new File(new File(mContext.getCacheDir(), CACHE_DIR), String.valueOf(dimension));
+        ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_DIVISOR;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * @param dimension width and height of the thumbnails, in pixels.
+     */
+    public static synchronized ThumbnailCache get(@NonNull Context context, int dimension) {
+        if (mSingleton == null || mSingleton.mDimension != dimension)
+            mSingleton = new ThumbnailCache(context, dimension);
+        return mSingleton;
+    }
+
+    /**
+     * Reads the thumbnail if it isn't in memory, so should be called from a background thread.
+     * @return the thumbnail, or null if MediaStore has none.
+     */
+    public Bitmap getThumbnail(@NonNull MediaItem mediaItem) {
+        // Edited media gets a new key, the old thumbnail is left to be evicted.
+        String key = mediaItem.mId + "_" + mediaItem.dateModified;
+        Bitmap thumbnail = mMemoryCache.get(key);
+        if (thumbnail != null) {
+            mMemoryHits.incrementAndGet();
+            return thumbnail;
+        }
+        File file = new File(mDir, key + ".jpg");
+        thumbnail = BitmapFactory.decodeFile(file.getPath());
+        if (thumbnail != null) {
+            mDiskHits.incrementAndGet();
+            // Trimming removes the least recently used files first.
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            mMisses.incrementAndGet();
+            thumbnail = loadThumbnail(mediaItem);
+            if (thumbnail == null)
+                return null;
+            write(file, thumbnail);
+        }
+        mMemoryCache.put(key, thumbnail);
+        return thumbnail;
+    }
+
+    private Bitmap loadThumbnail(MediaItem mediaItem) {
+        Bitmap thumbnail;
+        if (mediaItem.type == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
+            thumbnail = MediaStore.Images.Thumbnails.getThumbnail(
+                    mContext.getContentResolver(), mediaItem.mId, MediaStore.Images.Thumbnails.MICRO_KIND,
+                    new BitmapFactory.Options());
+        }
+        else {
+            thumbnail = MediaStore.Video.Thumbnails.getThumbnail(
+                    mContext.getContentResolver(), mediaItem.mId, MediaStore.Video.Thumbnails.MICRO_KIND,
+                    new BitmapFactory.Options());
+        }
+        if (thumbnail == null)
+            return null;
+        if (thumbnail.getWidth() == mDimension && thumbnail.getHeight() == mDimension)
+            return thumbnail;
+        return ThumbnailUtils.extractThumbnail(thumbnail, mDimension, mDimension,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+
+    private void write(File file, Bitmap thumbnail) {
+        if (!mDir.exists() && !mDir.mkdirs())
+            return;
+        // Marker icons are rendered on several threads, each write gets its own temporary file.
+        // One left behind by a crash is trimmed with the thumbnails.
+        File tmpFile;
+        try {
+            tmpFile = File.createTempFile(file.getName(), ".tmp", mDir);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create a file in " + mDir + ": " + e.toString());
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file + ": " + e.toString());
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            Log.w(TAG, "Failed to rename " + tmpFile);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        addDiskBytes(file.length());
+    }
+
+    /**
+     * Counts a written file, deleting the least recently used files down to 3/4 of
+     * {@link #MAX_DISK_BYTES} whenever the total goes over it.
+     */
+    private synchronized void addDiskBytes(long bytes) {
+        if (mDiskBytes < 0) {
+            // The first count includes the file just written.
+            File[] files = mDir.listFiles();
+            mDiskBytes = 0;
+            if (files != null) {
+                for (File file : files)
+                    mDiskBytes += file.length();
+            }
+        } else {
+            mDiskBytes += bytes;
+        }
+        if (mDiskBytes <= MAX_DISK_BYTES)
+            return;
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES * 3 / 4)
+                break;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+        mDiskBytes = total;
+    }
+
+    /**
+     * @return e.g. "500 requests, 82.0% from memory, 15.0% from disk".
+     */
+    public String getStats() {
+        long memoryHits = mMemoryHits.get();
+        long diskHits = mDiskHits.get();
+        long requests = memoryHits + diskHits + mMisses.get();
+        double percent = requests > 0 ? 100d / requests : 0;
+        return requests + " requests, " +
+                String.format(Locale.US, "%.1f%% from memory, %.1f%% from disk",
+                        memoryHits * percent, diskHits * percent);
+    }
+}
@@ -0,0 +1,356 @@
+package com.google.maps.android.utils.demo;
+
+import android.os.AsyncTask;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polyline of the location history, simplified to the current zoom level.
+ *
+ * A pyramid of Douglas-Peucker simplifications (one per integer zoom level, with a tolerance of
+ * {@link #TOLERANCE_DP} at that zoom) is built in the background. The levels are nested, so the
+ * pyramid is stored as the lowest zoom each point is shown at. The level of the current zoom is
+ * split into segments with bounding boxes, and {@link #onCameraIdle} only keeps the segments near
+ * the visible region on the map. So the map never holds more vertices than it can show, however
+ * long the history is.
+ */
+public class TravelledLine implements GoogleMap.OnCameraIdleListener {
+    private static final int MAX_ZOOM = 21;
+    private static final double TOLERANCE_DP = 0.5;
+    // Map tiles are 256dp wide at zoom 0.
+    private static final double TILE_SIZE_DP = 256;
+    private static final int SEGMENT_POINTS = 256;
+    // Segments this far (as a fraction of the visible size) outside the visible region are kept,
+    // so small pans don't need any changes.
+    private static final double MARGIN = 0.5;
+    private static final double E7 = 10000000d;
+
+    private final GoogleMap mMap;
+    private final PolylineOptions mOptions;
+    private LocationHistory mHistory;
+    // The history mMinZoom was built from, which is still displayed while mHistory is simplified.
+    private LocationHistory mLevelsHistory;
+    // Lowest zoom level each point of mLevelsHistory is shown at, MAX_ZOOM + 1 if never.
+    private byte[] mMinZoom;
+    private BuildLevelsAsync mBuildTask;
+    // Only the level of the current zoom is kept, it's cheap to derive from mMinZoom.
+    private Level mLevel;
+    private final SparseArray<Polyline> mSegments = new SparseArray<>();
+    private boolean mVisible = true;
+
+    /**
+     * The points of one zoom level, split into segments of at most {@link #SEGMENT_POINTS} points.
+     * Consecutive segments share their end point so the line stays connected.
+     */
+    static class Level {
+        final int zoom;
+        final int[] indices;
+        // Start of every segment in indices, and the last index.
+        final int[] segmentStarts;
+        // minLatitudeE7, minLongitudeE7, maxLatitudeE7, maxLongitudeE7 of every segment.
+        final int[] bounds;
+
+        Level(int zoom, byte[] minZoom, LocationHistory history) {
+            this.zoom = zoom;
+            int size = 0;
+            for (byte z : minZoom) {
+                if (z <= zoom)
+                    size++;
+            }
+            indices = new int[size];
+            int j = 0;
+            for (int i = 0; i < minZoom.length; i++) {
+                if (minZoom[i] <= zoom)
+                    indices[j++] = i;
+            }
+            int count = size < 2 ? 0 : (size - 2) / (SEGMENT_POINTS - 1) + 1;
+            segmentStarts = new int[count + 1];
+            bounds = new int[count * 4];
+            for (int i = 0; i < count; i++)
+                segmentStarts[i] = i * (SEGMENT_POINTS - 1);
+            segmentStarts[count] = Math.max(size - 1, 0);
+            for (int i = 0; i < count; i++) {
+                int minLat = Integer.MAX_VALUE, minLng = Integer.MAX_VALUE;
+                int maxLat = Integer.MIN_VALUE, maxLng = Integer.MIN_VALUE;
+                for (int k = segmentStarts[i]; k <= segmentStarts[i + 1]; k++) {
+                    int lat = history.getLatitudeE7(indices[k]);
+                    int lng = history.getLongitudeE7(indices[k]);
+                    minLat = Math.min(minLat, lat);
+                    minLng = Math.min(minLng, lng);
+                    maxLat = Math.max(maxLat, lat);
+                    maxLng = Math.max(maxLng, lng);
+                }
+                bounds[i * 4] = minLat;
+                bounds[i * 4 + 1] = minLng;
+                bounds[i * 4 + 2] = maxLat;
+                bounds[i * 4 + 3] = maxLng;
+            }
+        }
+
+        int segmentCount() {
+            return segmentStarts.length - 1;
+        }
+    }
+
+    public TravelledLine(@NonNull GoogleMap map, @NonNull PolylineOptions options) {
+        mMap = map;
+        mOptions = options;
+    }
+
+    /**
+     * Replaces the line, keeping the current one until the new one is simplified.
+     */
+    public void setHistory(@NonNull LocationHistory history) {
+        if (history == mHistory)
+            return;
+        mHistory = history;
+        if (mBuildTask != null)
+            mBuildTask.cancel(false);
+        mBuildTask = new BuildLevelsAsync(this, history);
+        // Not queued behind a data load on the serial executor.
+        mBuildTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * A hidden line has no segments on the map.
+     */
+    public void setVisible(boolean visible) {
+        if (visible == mVisible)
+            return;
+        mVisible = visible;
+        if (visible)
+            onCameraIdle();
+        else
+            removeSegments();
+    }
+
+    public void remove() {
+        if (mBuildTask != null)
+            mBuildTask.cancel(false);
+        removeSegments();
+        mHistory = null;
+        mLevelsHistory = null;
+        mMinZoom = null;
+        mLevel = null;
+    }
+
+    @Override
+    public void onCameraIdle() {
+        if (mMinZoom == null || !mVisible)
+            return;
+        int zoom = Math.max(0, Math.min((int) mMap.getCameraPosition().zoom, MAX_ZOOM));
+        if (mLevel == null || mLevel.zoom != zoom) {
+            removeSegments();
+            mLevel = new Level(zoom, mMinZoom, mLevelsHistory);
+        }
+        Level level = mLevel;
+
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        double west = x(visible.southwest.longitude);
+        double east = x(visible.northeast.longitude);
+        // Crossing the antimeridian.
+        if (east < west)
+            east += 1;
+        double north = y(visible.northeast.latitude);
+        double south = y(visible.southwest.latitude);
+        double marginX = (east - west) * MARGIN;
+        double marginY = (south - north) * MARGIN;
+        west -= marginX;
+        east += marginX;
+        north -= marginY;
+        south += marginY;
+        boolean allLongitudes = east - west >= 1;
+
+        int[] b = level.bounds;
+        for (int i = 0; i < level.segmentCount(); i++) {
+            // y grows southwards.
+            double minX = x(b[i * 4 + 1] / E7);
+            double maxX = x(b[i * 4 + 3] / E7);
+            boolean near = y(b[i * 4 + 2] / E7) <= south && y(b[i * 4] / E7) >= north &&
+                    (allLongitudes || overlaps(minX, maxX, west, east) ||
+                            overlaps(minX, maxX, west - 1, east - 1) ||
+                            overlaps(minX, maxX, west + 1, east + 1));
+            Polyline polyline = mSegments.get(i);
+            if (near && polyline == null) {
+                List<LatLng> points = new ArrayList<>();
+                for (int j = level.segmentStarts[i]; j <= level.segmentStarts[i + 1]; j++)
+                    points.add(mLevelsHistory.getLatLng(level.indices[j]));
+                polyline = mMap.addPolyline(mOptions);
+                polyline.setPoints(points);
+                mSegments.put(i, polyline);
+            } else if (!near && polyline != null) {
+                polyline.remove();
+                mSegments.remove(i);
+            }
+        }
+    }
+
+    private static boolean overlaps(double min, double max, double rangeMin, double rangeMax) {
+        return min <= rangeMax && max >= rangeMin;
+    }
+
+    private void removeSegments() {
+        for (int i = 0; i < mSegments.size(); i++)
+            mSegments.valueAt(i).remove();
+        mSegments.clear();
+    }
+
+    private void onLevelsBuilt(LocationHistory history, byte[] minZoom) {
+        mBuildTask = null;
+        removeSegments();
+        mLevelsHistory = history;
+        mMinZoom = minZoom;
+        mLevel = null;
+        onCameraIdle();
+    }
+
+    /**
+     * Spherical mercator, scaled to [0, 1] at zoom 0.
+     */
+    private static double x(double longitude) {
+        return longitude / 360 + 0.5;
+    }
+
+    private static double y(double latitude) {
+        double sinLat = Math.sin(Math.toRadians(latitude));
+        sinLat = Math.max(-0.9999, Math.min(sinLat, 0.9999));
+        return 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+    }
+
+    /**
+     * Builds the simplification of every zoom level. Douglas-Peucker is only run once, recording
+     * the distance each point was kept at, so a level is the points kept at more than its tolerance.
+     * @return the lowest zoom level each point is kept at, MAX_ZOOM + 1 if it never is.
+     */
+    static byte[] buildMinZoom(LocationHistory history) {
+        int size = history.size();
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = x(history.getLongitude(i));
+            y[i] = y(history.getLatitude(i));
+        }
+        double[] significance = significance(x, y);
+        double[] toleranceSq = new double[MAX_ZOOM + 1];
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            double tolerance = TOLERANCE_DP / (TILE_SIZE_DP * (1 << zoom));
+            toleranceSq[zoom] = tolerance * tolerance;
+        }
+        byte[] minZoom = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int zoom = 0;
+            while (zoom <= MAX_ZOOM && significance[i] <= toleranceSq[zoom])
+                zoom++;
+            minZoom[i] = (byte) zoom;
+        }
+        return minZoom;
+    }
+
+    /**
+     * Douglas-Peucker with a tolerance of 0, with an explicit stack since a long history would
+     * overflow the call stack.
+     * @return for every point, the largest squared tolerance it would be kept at.
+     */
+    private static double[] significance(double[] x, double[] y) {
+        int count = x.length;
+        double[] significance = new double[count];
+        if (count == 0)
+            return significance;
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[count - 1] = Double.POSITIVE_INFINITY;
+        int[] stack = new int[64];
+        // Significance of the point that split each range, a point is never kept if its parent isn't.
+        double[] parents = new double[32];
+        int top = 0;
+        stack[top * 2] = 0;
+        stack[top * 2 + 1] = count - 1;
+        parents[top++] = Double.POSITIVE_INFINITY;
+        while (top > 0) {
+            top--;
+            int first = stack[top * 2];
+            int last = stack[top * 2 + 1];
+            double parent = parents[top];
+            double ax = x[first];
+            double ay = y[first];
+            double dx = x[last] - ax;
+            double dy = y[last] - ay;
+            double lengthSq = dx * dx + dy * dy;
+            double maxDistSq = -1;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double px = x[i] - ax;
+                double py = y[i] - ay;
+                double distSq;
+                if (lengthSq == 0) {
+                    distSq = px * px + py * py;
+                } else {
+                    // Distance to the segment rather than the line, so back-tracking is kept.
+                    double t = Math.max(0, Math.min((px * dx + py * dy) / lengthSq, 1));
+                    double ex = px - t * dx;
+                    double ey = py - t * dy;
+                    distSq = ex * ex + ey * ey;
+                }
+                if (distSq > maxDistSq) {
+                    maxDistSq = distSq;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0)
+                continue;
+            double s = Math.min(maxDistSq, parent);
+            significance[farthest] = s;
+            if (top + 2 > parents.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                parents = Arrays.copyOf(parents, parents.length * 2);
+            }
+            if (farthest - first > 1) {
+                stack[top * 2] = first;
+                stack[top * 2 + 1] = farthest;
+                parents[top++] = s;
+            }
+            if (last - farthest > 1) {
+                stack[top * 2] = farthest;
+                stack[top * 2 + 1] = last;
+                parents[top++] = s;
+            }
+        }
+        return significance;
+    }
+
+    private static class BuildLevelsAsync extends AsyncTask<Void, Void, byte[]> {
+        private final WeakReference<TravelledLine> mLine;
+        private final LocationHistory mHistory;
+
+        private BuildLevelsAsync(TravelledLine line, LocationHistory history) {
+            super();
+            mLine = new WeakReference<>(line);
+            mHistory = history;
+        }
+
+        @Override
+        protected byte[] doInBackground(Void... v) {
+            return buildMinZoom(mHistory);
+        }
+
+        @Override
+        protected void onPostExecute(byte[] minZoom) {
+            super.onPostExecute(minZoom);
+            TravelledLine line = mLine.get();
+            if (line != null && !isCancelled())
+                line.onLevelsBuilt(mHistory, minZoom);
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package com.google.maps.android.utils.demo.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Set;
 
 public class LocationData {
     public List<MediaItem> mMediaItems = new ArrayList<>();
-    public TreeMap<Long, LocationHistoryItem> locationHistory = new TreeMap<>();
+    // While loading, the items before this index were in the previous data of the load as well.
+    public int newItemsStart = 0;
+    public LocationHistory locationHistory = LocationHistory.EMPTY;
+    // Identifies the load, items are only added to the data of the same load until it's complete.
+    public int loadId;
+    // False while media is still being loaded, locationHistory isn't set yet.
+    public boolean complete = true;
+    // Incremented when the data of a load is refreshed, with the IDs of the media items that were
+    // removed or changed since the previous revision. Any other items are unchanged.
+    public int revision = 0;
+    public Set<Long> removedIds = Collections.emptySet();
 }
@@ -0,0 +1,236 @@
+package com.google.maps.android.utils.demo.model;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Time ordered location samples, stored as parallel primitive arrays rather than one object per
+ * sample. Immutable, {@link #subRange} returns a view sharing the same arrays.
+ */
+public class LocationHistory {
+    public static final LocationHistory EMPTY = new LocationHistory(new long[0], new int[0], new int[0], 0, 0);
+    private static final double E7 = 10000000d;
+
+    private final long[] mTimestamps;
+    private final int[] mLatitudes;
+    private final int[] mLongitudes;
+    private final int mOffset;
+    private final int mSize;
+
+    private LocationHistory(long[] timestamps, int[] latitudes, int[] longitudes, int offset, int size) {
+        mTimestamps = timestamps;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return mTimestamps[mOffset + index];
+    }
+
+    public int getLatitudeE7(int index) {
+        return mLatitudes[mOffset + index];
+    }
+
+    public int getLongitudeE7(int index) {
+        return mLongitudes[mOffset + index];
+    }
+
+    public double getLatitude(int index) {
+        return mLatitudes[mOffset + index] / E7;
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[mOffset + index] / E7;
+    }
+
+    public LatLng getLatLng(int index) {
+        return new LatLng(getLatitude(index), getLongitude(index));
+    }
+
+    /**
+     * @return index of the last sample at or before timestampMs, or -1 if there isn't one.
+     */
+    public int floorIndex(long timestampMs) {
+        // Index of the first sample after timestampMs, minus one.
+        return upperBound(timestampMs) - 1;
+    }
+
+    /**
+     * @return index of the first sample at or after timestampMs, or -1 if there isn't one.
+     */
+    public int ceilingIndex(long timestampMs) {
+        int index = lowerBound(timestampMs);
+        return index < mSize ? index : -1;
+    }
+
+    /**
+     * @return view of the samples in [startTime, endTime].
+     */
+    public LocationHistory subRange(long startTime, long endTime) {
+        int from = lowerBound(startTime);
+        int to = Math.max(upperBound(endTime), from);
+        if (from == 0 && to == mSize)
+            return this;
+        return new LocationHistory(mTimestamps, mLatitudes, mLongitudes, mOffset + from, to - from);
+    }
+
+    private int lowerBound(long timestampMs) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTimestamps[mOffset + mid] < timestampMs)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int upperBound(long timestampMs) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTimestamps[mOffset + mid] <= timestampMs)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Collects samples in any order. Like a map keyed by timestamp, if several samples share a
+     * timestamp the one added last is kept.
+     */
+    public static class Builder {
+        private long[] mTimestamps;
+        private int[] mLatitudes;
+        private int[] mLongitudes;
+        private int mSize = 0;
+
+        public Builder() {
+            this(1024);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            mTimestamps = new long[capacity];
+            mLatitudes = new int[capacity];
+            mLongitudes = new int[capacity];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public Builder add(long timestampMs, int latitudeE7, int longitudeE7) {
+            if (mSize == mTimestamps.length)
+                grow();
+            mTimestamps[mSize] = timestampMs;
+            mLatitudes[mSize] = latitudeE7;
+            mLongitudes[mSize] = longitudeE7;
+            mSize++;
+            return this;
+        }
+
+        public Builder add(long timestampMs, LatLng latLng) {
+            return add(timestampMs, (int) Math.round(latLng.latitude * E7),
+                    (int) Math.round(latLng.longitude * E7));
+        }
+
+        public Builder addAll(LocationHistory history) {
+            for (int i = 0; i < history.mSize; i++)
+                add(history.getTimestamp(i), history.getLatitudeE7(i), history.getLongitudeE7(i));
+            return this;
+        }
+
+        private void grow() {
+            int capacity = mTimestamps.length * 2;
+            long[] timestamps = new long[capacity];
+            int[] latitudes = new int[capacity];
+            int[] longitudes = new int[capacity];
+            System.arraycopy(mTimestamps, 0, timestamps, 0, mSize);
+            System.arraycopy(mLatitudes, 0, latitudes, 0, mSize);
+            System.arraycopy(mLongitudes, 0, longitudes, 0, mSize);
+            mTimestamps = timestamps;
+            mLatitudes = latitudes;
+            mLongitudes = longitudes;
+        }
+
+        /**
+         * Sorts (if needed), removes duplicate timestamps and trims the arrays. The builder
+         * shouldn't be used afterwards.
+         */
+        public LocationHistory build() {
+            boolean sorted = true;
+            for (int i = 1; i < mSize && sorted; i++)
+                sorted = mTimestamps[i - 1] < mTimestamps[i];
+            if (!sorted)
+                sortAndDeduplicate();
+            if (mSize == 0)
+                return EMPTY;
+            if (mSize < mTimestamps.length) {
+                long[] timestamps = new long[mSize];
+                int[] latitudes = new int[mSize];
+                int[] longitudes = new int[mSize];
+                System.arraycopy(mTimestamps, 0, timestamps, 0, mSize);
+                System.arraycopy(mLatitudes, 0, latitudes, 0, mSize);
+                System.arraycopy(mLongitudes, 0, longitudes, 0, mSize);
+                mTimestamps = timestamps;
+                mLatitudes = latitudes;
+                mLongitudes = longitudes;
+            }
+            return new LocationHistory(mTimestamps, mLatitudes, mLongitudes, 0, mSize);
+        }
+
+        private void sortAndDeduplicate() {
+            // Stable merge sort of an index permutation, so "last added wins" holds for duplicates.
+            int[] order = new int[mSize];
+            for (int i = 0; i < mSize; i++)
+                order[i] = i;
+            int[] temp = new int[mSize];
+            for (int width = 1; width < mSize; width *= 2) {
+                for (int low = 0; low < mSize - width; low += width * 2) {
+                    int mid = low + width;
+                    int high = Math.min(low + width * 2, mSize);
+                    int i = low, j = mid, k = low;
+                    while (i < mid && j < high)
+                        temp[k++] = mTimestamps[order[j]] < mTimestamps[order[i]] ? order[j++] : order[i++];
+                    while (i < mid)
+                        temp[k++] = order[i++];
+                    while (j < high)
+                        temp[k++] = order[j++];
+                    System.arraycopy(temp, low, order, low, high - low);
+                }
+            }
+            long[] timestamps = new long[mSize];
+            int[] latitudes = new int[mSize];
+            int[] longitudes = new int[mSize];
+            int size = 0;
+            for (int i = 0; i < order.length; i++) {
+                int index = order[i];
+                if (size > 0 && timestamps[size - 1] == mTimestamps[index])
+                    size--;
+                timestamps[size] = mTimestamps[index];
+                latitudes[size] = mLatitudes[index];
+                longitudes[size] = mLongitudes[index];
+                size++;
+            }
+            mTimestamps = timestamps;
+            mLatitudes = latitudes;
+            mLongitudes = longitudes;
+            mSize = size;
+        }
+    }
+}
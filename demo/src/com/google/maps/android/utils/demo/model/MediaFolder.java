@@ -0,0 +1,20 @@
+package com.google.maps.android.utils.demo.model;
+
+/**
+ * A MediaStore bucket, with how much media it has.
+ */
+public class MediaFolder {
+    public final String name;
+    public final int mediaCount;
+    // Media whose location has been read, whether or not it has one.
+    public final int scannedCount;
+    // Scanned media that has a location.
+    public final int geotaggedCount;
+
+    public MediaFolder(String name, int mediaCount, int scannedCount, int geotaggedCount) {
+        this.name = name;
+        this.mediaCount = mediaCount;
+        this.scannedCount = scannedCount;
+        this.geotaggedCount = geotaggedCount;
+    }
+}
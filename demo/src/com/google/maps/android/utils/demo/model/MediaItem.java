@@ -24,13 +24,20 @@ public class MediaItem implements ClusterItem {
     public final LatLng mPosition;
     public final long mId;
     public final long date;
+    // MediaStore DATE_ADDED, in seconds.
+    public final long dateAdded;
+    // MediaStore DATE_MODIFIED, in seconds.
+    public final long dateModified;
     public final int type;
 
-    public MediaItem(LatLng position, String mediaPath, long id, long date, int type) {
+    public MediaItem(LatLng position, String mediaPath, long id, long date, long dateAdded,
+                     long dateModified, int type) {
         this.mediaPath = mediaPath;
         mPosition = position;
         mId = id;
         this.date = date;
+        this.dateAdded = dateAdded;
+        this.dateModified = dateModified;
         this.type = type;
     }
 
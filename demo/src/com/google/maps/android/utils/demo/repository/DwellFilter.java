@@ -0,0 +1,42 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+/**
+ * Collapses stationary runs (every sample within radius of the first, for at least minDuration)
+ * into a dwell: the first sample, and the same position again at the time of the last sample.
+ */
+public class DwellFilter extends LocationFilter {
+    private final double mRadiusSq;
+    private final long mMinDurationMs;
+
+    public DwellFilter(double radiusMetres, long minDurationMs) {
+        mRadiusSq = radiusMetres * radiusMetres;
+        mMinDurationMs = minDurationMs;
+    }
+
+    @Override
+    public LocationHistory apply(@NonNull LocationHistory history) {
+        int size = history.size();
+        LocationHistory.Builder builder = new LocationHistory.Builder(size / 4);
+        int i = 0;
+        while (i < size) {
+            int lat = history.getLatitudeE7(i);
+            int lng = history.getLongitudeE7(i);
+            int last = i;
+            while (last + 1 < size && distanceSq(lat, lng,
+                    history.getLatitudeE7(last + 1), history.getLongitudeE7(last + 1)) <= mRadiusSq)
+                last++;
+            builder.add(history.getTimestamp(i), lat, lng);
+            if (last > i + 1 && history.getTimestamp(last) - history.getTimestamp(i) >= mMinDurationMs) {
+                builder.add(history.getTimestamp(last), lat, lng);
+                i = last + 1;
+            } else {
+                i++;
+            }
+        }
+        return builder.size() == size ? history : builder.build();
+    }
+}
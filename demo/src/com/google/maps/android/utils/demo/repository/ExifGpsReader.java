@@ -0,0 +1,188 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.media.ExifInterface;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the GPS location of a JPEG from its EXIF (APP1) segment only, rather than having
+ * ExifInterface parse and buffer the whole header. Other formats (HEIC, PNG, ...) and anything
+ * unexpected fall back to ExifInterface.
+ *
+ * Thread safe, counts the files read, bytes read and time taken for {@link #getStats}.
+ */
+class ExifGpsReader {
+    private static final int SOI = 0xffd8;
+    private static final int APP1 = 0xffe1;
+    private static final int SOS = 0xffda;
+    private static final int EOI = 0xffd9;
+    private static final int EXIF_HEADER = 0x45786966; // "Exif"
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_GPS_LATITUDE_REF = 1;
+    private static final int TAG_GPS_LATITUDE = 2;
+    private static final int TAG_GPS_LONGITUDE_REF = 3;
+    private static final int TAG_GPS_LONGITUDE = 4;
+    private static final int TYPE_RATIONAL = 5;
+    // Segments before APP1 (APP0/JFIF) are small, give up if APP1 isn't near the start.
+    private static final int MAX_SEGMENTS = 16;
+
+    private final AtomicLong mFiles = new AtomicLong();
+    private final AtomicLong mFallbacks = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mNanos = new AtomicLong();
+
+    /**
+     * Thrown for files that aren't a JPEG or that couldn't be parsed, so ExifInterface is used.
+     */
+    private static class UnsupportedException extends Exception {
+    }
+
+    /**
+     * @return {latitude, longitude}, or null if the file has no location.
+     */
+    float[] read(@NonNull String path) throws IOException {
+        long start = System.nanoTime();
+        long[] bytesRead = {0};
+        try (FileInputStream stream = new FileInputStream(path);
+             FileChannel channel = stream.getChannel()) {
+            return readJpeg(channel, bytesRead);
+        } catch (UnsupportedException e) {
+            mFallbacks.incrementAndGet();
+            float[] latLong = new float[2];
+            return new ExifInterface(path).getLatLong(latLong) ? latLong : null;
+        } finally {
+            mFiles.incrementAndGet();
+            mBytesRead.addAndGet(bytesRead[0]);
+            mNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return e.g. "120 files (3 via ExifInterface), 840 KB read, 0.40 ms per file". Bytes read by
+     * ExifInterface aren't included.
+     */
+    String getStats() {
+        long files = mFiles.get();
+        return files + " files (" + mFallbacks.get() + " via ExifInterface), " +
+                mBytesRead.get() / 1024 + " KB read, " +
+                String.format(Locale.US, "%.2f", files > 0 ? mNanos.get() / 1e6 / files : 0) + " ms per file";
+    }
+
+    private static float[] readJpeg(FileChannel channel, long[] bytesRead)
+            throws IOException, UnsupportedException {
+        ByteBuffer marker = ByteBuffer.allocate(4);
+        long position = 0;
+        read(channel, marker, position, 2, bytesRead);
+        if ((marker.getShort(0) & 0xffff) != SOI)
+            throw new UnsupportedException();
+        position += 2;
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            read(channel, marker, position, 4, bytesRead);
+            int type = marker.getShort(0) & 0xffff;
+            int length = marker.getShort(2) & 0xffff;
+            if (type == SOS || type == EOI)
+                return null;
+            if ((type & 0xff00) != 0xff00 || length < 2)
+                throw new UnsupportedException();
+            if (type == APP1 && length >= 8) {
+                ByteBuffer segment = ByteBuffer.allocate(length - 2);
+                read(channel, segment, position + 4, length - 2, bytesRead);
+                // Could also be an XMP APP1, keep looking for the EXIF one.
+                if (segment.getInt(0) == EXIF_HEADER && segment.getShort(4) == 0) {
+                    segment.position(6);
+                    return readTiff(segment.slice());
+                }
+            }
+            position += 2 + length;
+        }
+        throw new UnsupportedException();
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buf, long position, int length,
+                             long[] bytesRead) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0)
+                throw new EOFException();
+            bytesRead[0] += read;
+        }
+    }
+
+    private static float[] readTiff(ByteBuffer tiff) throws UnsupportedException {
+        try {
+            int byteOrder = tiff.getShort(0);
+            if (byteOrder == 0x4949) // "II"
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            else if (byteOrder != 0x4d4d) // "MM"
+                throw new UnsupportedException();
+            if (tiff.getShort(2) != 42)
+                throw new UnsupportedException();
+            int gpsIfd = findTag(tiff, tiff.getInt(4), TAG_GPS_IFD);
+            if (gpsIfd < 0)
+                return null;
+            gpsIfd = tiff.getInt(gpsIfd + 8);
+            int latitudeRef = findTag(tiff, gpsIfd, TAG_GPS_LATITUDE_REF);
+            int latitude = findTag(tiff, gpsIfd, TAG_GPS_LATITUDE);
+            int longitudeRef = findTag(tiff, gpsIfd, TAG_GPS_LONGITUDE_REF);
+            int longitude = findTag(tiff, gpsIfd, TAG_GPS_LONGITUDE);
+            if (latitudeRef < 0 || latitude < 0 || longitudeRef < 0 || longitude < 0)
+                return null;
+            double lat = readDegrees(tiff, latitude);
+            double lng = readDegrees(tiff, longitude);
+            if (Double.isNaN(lat) || Double.isNaN(lng))
+                return null;
+            // Refs are ASCII, stored in the entry itself.
+            if (tiff.get(latitudeRef + 8) == 'S')
+                lat = -lat;
+            if (tiff.get(longitudeRef + 8) == 'W')
+                lng = -lng;
+            return new float[] { (float) lat, (float) lng };
+        } catch (IndexOutOfBoundsException e) {
+            throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * @return offset of the IFD entry with the tag, or -1.
+     */
+    private static int findTag(ByteBuffer tiff, int ifd, int tag) {
+        int count = tiff.getShort(ifd) & 0xffff;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xffff) == tag)
+                return entry;
+        }
+        return -1;
+    }
+
+    /**
+     * @return degrees from three rationals (degrees, minutes, seconds), or NaN.
+     */
+    private static double readDegrees(ByteBuffer tiff, int entry) {
+        if (tiff.getShort(entry + 2) != TYPE_RATIONAL || tiff.getInt(entry + 4) != 3)
+            return Double.NaN;
+        int offset = tiff.getInt(entry + 8);
+        double degrees = 0;
+        double divisor = 1;
+        for (int i = 0; i < 3; i++) {
+            long numerator = tiff.getInt(offset + i * 8) & 0xffffffffL;
+            long denominator = tiff.getInt(offset + i * 8 + 4) & 0xffffffffL;
+            if (denominator == 0)
+                return Double.NaN;
+            degrees += (double) numerator / denominator / divisor;
+            divisor *= 60;
+        }
+        return degrees;
+    }
+}
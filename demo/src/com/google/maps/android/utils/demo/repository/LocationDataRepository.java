@@ -1,13 +1,14 @@
 package com.google.maps.android.utils.demo.repository;
 
 import android.app.Application;
-import android.database.Cursor;
-import android.media.ExifInterface;
-import android.media.MediaMetadataRetriever;
+import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.MediaStore;
-import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -15,38 +16,65 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.google.android.gms.maps.model.LatLng;
-import com.google.gson.stream.JsonReader;
-import com.google.maps.android.SphericalUtil;
 import com.google.maps.android.utils.demo.model.LocationData;
-import com.google.maps.android.utils.demo.model.LocationHistoryItem;
+import com.google.maps.android.utils.demo.model.LocationHistory;
+import com.google.maps.android.utils.demo.model.MediaFolder;
 import com.google.maps.android.utils.demo.model.MediaItem;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
-import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-
-import wseemann.media.FFmpegMediaMetadataRetriever;
-import us.fatehi.pointlocation6709.parse.ParserException;
-import us.fatehi.pointlocation6709.PointLocation;
-import us.fatehi.pointlocation6709.parse.PointLocationParser;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class LocationDataRepository {
     private static final String TAG = "LocationDataRepo";
+    /** Metres, see {@link #setDataSource}. */
+    public static final int DEFAULT_MAX_LOCATION_ERROR = 50;
     private static LocationDataRepository mSingleton = null;
     private final Application mContext;
     private LoadDataAsync mCurrentTask;
+    private LoadedData mLoadedData;
+    private MediaLocationCache mMediaLocationCache;
+    private MediaIndex mMediaIndex;
     private MutableLiveData<LocationData> mLocationData = new MutableLiveData<>();
     private MutableLiveData<Integer> mProgress = new MutableLiveData<>();
+    private MutableLiveData<List<MediaFolder>> mFolders = new MutableLiveData<>();
+    private LoadFoldersAsync mFoldersTask;
+    private boolean mFoldersChangedDuringLoad = false;
+    // The folders are out of date, and will be updated once a data load has synced the media index.
+    private boolean mFoldersStale = false;
     private boolean mLoadCompleted = false;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Media changes usually come in bursts (e.g. a file then its thumbnail), wait for them to settle.
+    private static final long MEDIA_CHANGE_DELAY_MS = 2000;
+    private final Runnable mMediaChangedRunnable = this::onMediaChanged;
+    private boolean mMediaChangedDuringLoad = false;
 
     private LocationDataRepository(@NonNull Application context) {
         mContext = context;
+        mContext.getContentResolver().registerContentObserver(MediaStore.Files.getContentUri("external"),
+                true, new ContentObserver(mMainHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        mMainHandler.removeCallbacks(mMediaChangedRunnable);
+                        mMainHandler.postDelayed(mMediaChangedRunnable, MEDIA_CHANGE_DELAY_MS);
+                    }
+                });
     }
 
     public static LocationDataRepository getInstance() {
@@ -63,28 +91,93 @@ public class LocationDataRepository {
         return mSingleton;
     }
 
+    /**
+     * @param maxLocationError metres the thinned out location history may be off from the original
+     *                         track, 0 to keep every sample.
+     */
     public void setDataSource(long startTime, long endTime, @NonNull Uri locationHistoryFile,
-                              List<String> selectedFolders) {
+                              List<String> selectedFolders, int maxLocationError) {
+        boolean refreshOnly = false;
         if (mCurrentTask != null) {
             if (mCurrentTask.startTime == startTime &&
                     mCurrentTask.endTime == endTime &&
                     mCurrentTask.locationHistoryFile.toString().equals(locationHistoryFile.toString()) &&
-                    mCurrentTask.selectedFolders.equals(selectedFolders)) {
-                // Nothing has changed.
-                // TODO: Check if locationHistoryFile has been modified? Media and folders could change as well..
-                return;
+                    mCurrentTask.selectedFolders.equals(selectedFolders) &&
+                    mCurrentTask.maxLocationError == maxLocationError) {
+                // Same parameters, but the file or media may have changed since the last load. Keep
+                // showing what's loaded while that's checked.
+                if (mCurrentTask.getStatus() != AsyncTask.Status.FINISHED)
+                    return;
+                refreshOnly = true;
+            } else {
+                mCurrentTask.cancel(false);
             }
-            mCurrentTask.cancel(false);
         }
-        mLocationData.setValue(null);
-        mProgress.setValue(0);
-        mLoadCompleted = false;
+        // The new load checks MediaStore for changes anyway.
+        mMediaChangedDuringLoad = false;
+        if (!refreshOnly) {
+            mLocationData.setValue(null);
+            mProgress.setValue(0);
+            mLoadCompleted = false;
+        }
 
+        // Only load what isn't already covered by the previous load, narrower ranges are just a
+        // slice of what's already in memory.
+        LoadedData loaded = mLoadedData;
+        List<long[]> missingRanges = new ArrayList<>();
+        if (loaded != null && loaded.locationHistoryFile.equals(locationHistoryFile.toString()) &&
+                loaded.selectedFolders.equals(selectedFolders) &&
+                loaded.maxLocationError == maxLocationError &&
+                startTime <= loaded.endTime && endTime >= loaded.startTime) {
+            if (startTime < loaded.startTime)
+                missingRanges.add(new long[] { startTime, loaded.startTime - 1 });
+            if (endTime > loaded.endTime)
+                missingRanges.add(new long[] { loaded.endTime + 1, endTime });
+        } else {
+            loaded = null;
+            missingRanges.add(new long[] { startTime, endTime });
+        }
+
+        // A refresh is published as a change to what's displayed, rather than as a new load.
+        LocationData displayed = refreshOnly ? mLocationData.getValue() : null;
         mCurrentTask = new LoadDataAsync(this, startTime, endTime,
-                locationHistoryFile, new ArrayList<>(selectedFolders));
+                locationHistoryFile, new ArrayList<>(selectedFolders), maxLocationError, loaded, missingRanges,
+                displayed);
         mCurrentTask.execute();
     }
 
+    /**
+     * Reloads the current data source once MediaStore has changed, which only reads the changes.
+     */
+    private void onMediaChanged() {
+        LoadDataAsync task = mCurrentTask;
+        boolean loading = task != null && !task.isCancelled();
+        if (loading) {
+            if (task.getStatus() != AsyncTask.Status.FINISHED)
+                mMediaChangedDuringLoad = true;
+            else
+                setDataSource(task.startTime, task.endTime, task.locationHistoryFile, task.selectedFolders,
+                        task.maxLocationError);
+        }
+        // The data load syncs the media index, so the folders are only rebuilt once it has.
+        if (mFolders.getValue() != null) {
+            if (loading)
+                mFoldersStale = true;
+            else
+                loadFolders(true);
+        }
+    }
+
+    /**
+     * Called once a data load has synced the media index.
+     */
+    private void onMediaIndexSynced() {
+        if (mFoldersStale) {
+            mFoldersStale = false;
+            loadFolders(false);
+        }
+    }
+
     public LiveData<LocationData> getLocationData() {
         return mLocationData;
     }
@@ -97,34 +190,217 @@ public class LocationDataRepository {
         return mLoadCompleted;
     }
 
-    public List<String> getFolderList() {
-        List<String> folders = new ArrayList<>();
-        Uri external = MediaStore.Files.getContentUri("external");
-        String[] projection = { "Distinct " + MediaStore.Images.Media.BUCKET_DISPLAY_NAME };
-        String selection = "(" + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + " OR " +
-                MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO + ")";
-        String order = MediaStore.Images.Media.BUCKET_DISPLAY_NAME;
-        try (Cursor cur = mContext.getContentResolver().query(
-                external, projection, selection, null, order)) {
-            if (cur == null || !cur.moveToFirst())
-                return folders;
-            int bucketColumn = cur.getColumnIndex(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
-            do {
-                String bucket = cur.getString(bucketColumn);
-                if (bucket == null)
-                    continue;
-                String logTxt = " bucket: " + bucket;
-                // TODO: Dunno where these "IMG_" buckets are coming from, just ignore for now..
-                if (bucket.startsWith("IMG_"))
-                    logTxt += " - Ignored";
-                else
-                    folders.add(bucket);
-                Log.i(TAG, logTxt);
-            } while (cur.moveToNext());
-        }
-        return folders;
+    /**
+     * Reads the cache on first use, so should be called from a background thread.
+     */
+    private synchronized MediaLocationCache getMediaLocationCache() {
+        if (mMediaLocationCache == null)
+            mMediaLocationCache = MediaLocationCache.read(mContext);
+        return mMediaLocationCache;
+    }
+
+    /**
+     * Reads the index on first use, so should be called from a background thread.
+     */
+    private synchronized MediaIndex getMediaIndex() {
+        if (mMediaIndex == null)
+            mMediaIndex = MediaIndex.read(mContext);
+        return mMediaIndex;
+    }
+
+    public LiveData<List<MediaFolder>> getFolders() {
+        return mFolders;
+    }
+
+    /**
+     * Updates {@link #getFolders} in the background, first from the stored media index (if there is
+     * one) so it's available straight away, then again once the index is synced with MediaStore.
+     * If a data load is about to sync the index, the folders are updated after it has rather than
+     * syncing twice.
+     */
+    public void loadFolders() {
+        LoadDataAsync task = mCurrentTask;
+        if (task != null && !task.isCancelled() && !task.mediaIndexSynced) {
+            mFoldersStale = true;
+            loadFolders(false);
+        } else {
+            loadFolders(true);
+        }
+    }
+
+    /**
+     * @param sync whether to sync the index, otherwise the folders are only built from it.
+     */
+    private void loadFolders(boolean sync) {
+        if (mFoldersTask != null && mFoldersTask.getStatus() != AsyncTask.Status.FINISHED) {
+            mFoldersChangedDuringLoad = true;
+            return;
+        }
+        mFoldersChangedDuringLoad = false;
+        mFoldersTask = new LoadFoldersAsync(this, sync);
+        // Not queued behind a data load on the serial executor.
+        mFoldersTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Everything loaded so far for a file and folder selection, which may cover a wider time range
+     * than is currently displayed.
+     */
+    private static class LoadedData {
+        final long startTime;
+        final long endTime;
+        final String locationHistoryFile;
+        final List<String> selectedFolders;
+        final int maxLocationError;
+        final LocationHistoryCache.Key historyKey;
+        // Points from the location history file only.
+        final LocationHistory fileHistory;
+        // fileHistory plus the locations of geotagged media.
+        final LocationHistory locationHistory;
+        final List<MediaItem> mediaItems;
+        final List<MediaItem> mediaItemsNoLocation;
+        // Media index generation the media is up to date with.
+        final int mediaGeneration;
+
+        LoadedData(long startTime, long endTime, String locationHistoryFile, List<String> selectedFolders,
+                   int maxLocationError, LocationHistoryCache.Key historyKey, LocationHistory fileHistory,
+                   LocationHistory locationHistory, List<MediaItem> mediaItems, List<MediaItem> mediaItemsNoLocation,
+                   int mediaGeneration) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.locationHistoryFile = locationHistoryFile;
+            this.selectedFolders = selectedFolders;
+            this.maxLocationError = maxLocationError;
+            this.historyKey = historyKey;
+            this.fileHistory = fileHistory;
+            this.locationHistory = locationHistory;
+            this.mediaItems = mediaItems;
+            this.mediaItemsNoLocation = mediaItemsNoLocation;
+            this.mediaGeneration = mediaGeneration;
+        }
+    }
+
+    /**
+     * Read-only list of the batches published so far, so each publish doesn't copy every item.
+     */
+    private static class BatchList extends AbstractList<MediaItem> {
+        private final List<List<MediaItem>> mBatches;
+        // Index of the first item of each batch.
+        private final int[] mStarts;
+        private final int mSize;
+
+        BatchList(List<List<MediaItem>> batches, int size) {
+            mBatches = batches;
+            mStarts = new int[batches.size()];
+            int start = 0;
+            for (int i = 0; i < mStarts.length; i++) {
+                mStarts[i] = start;
+                start += batches.get(i).size();
+            }
+            mSize = size;
+        }
+
+        @Override
+        public MediaItem get(int index) {
+            if (index < 0 || index >= mSize)
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            int batch = Arrays.binarySearch(mStarts, index);
+            if (batch < 0)
+                batch = -batch - 2;
+            // Empty batches share their start with the next one.
+            while (index - mStarts[batch] >= mBatches.get(batch).size())
+                batch++;
+            return mBatches.get(batch).get(index - mStarts[batch]);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * A media row whose location may still be being read.
+     */
+    private static class PendingMediaItem {
+        final long id;
+        final String mediaPath;
+        final long date;
+        final long dateAdded;
+        final long dateModified;
+        final int type;
+        float[] latLong;
+        Future<float[]> future;
+
+        PendingMediaItem(long id, String mediaPath, long date, long dateAdded, long dateModified, int type) {
+            this.id = id;
+            this.mediaPath = mediaPath;
+            this.date = date;
+            this.dateAdded = dateAdded;
+            this.dateModified = dateModified;
+            this.type = type;
+        }
+
+        /**
+         * Waits for the location if it's being read.
+         * @return {latitude, longitude}, or null or {@link MediaLocationCache#NO_LOCATION}.
+         */
+        float[] getLatLong() {
+            if (future == null)
+                return latLong;
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Metadata load failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    private static class LoadFoldersAsync extends AsyncTask<Void, Void, List<MediaFolder>> {
+        private final WeakReference<LocationDataRepository> repository;
+        private final boolean sync;
+
+        private LoadFoldersAsync(LocationDataRepository repo, boolean sync) {
+            super();
+            this.repository = new WeakReference<>(repo);
+            this.sync = sync;
+        }
+
+        @Override
+        protected List<MediaFolder> doInBackground(Void... v) {
+            LocationDataRepository repo = repository.get();
+            if (repo == null)
+                return null;
+            MediaIndex index = repo.getMediaIndex();
+            MediaLocationCache locationCache = repo.getMediaLocationCache();
+            if (!sync)
+                return index.isSynced() ? index.getFolders(locationCache) : null;
+            if (index.isSynced()) {
+                List<MediaFolder> folders = index.getFolders(locationCache);
+                repo.mMainHandler.post(() -> {
+                    if (!isCancelled())
+                        repo.mFolders.setValue(folders);
+                });
+            }
+            index.sync(repo.mContext);
+            index.write();
+            return index.getFolders(locationCache);
+        }
+
+        @Override
+        protected void onPostExecute(List<MediaFolder> folders) {
+            super.onPostExecute(folders);
+            LocationDataRepository repo = repository.get();
+            if (repo == null)
+                return;
+            if (folders != null)
+                repo.mFolders.setValue(folders);
+            if (repo.mFoldersChangedDuringLoad)
+                repo.mMainHandler.post(repo::loadFolders);
+        }
     }
 
     private static class LoadDataAsync extends AsyncTask<Void, Integer, Void> {
@@ -133,31 +409,97 @@ public class LocationDataRepository {
         private final long endTime;
         private final Uri locationHistoryFile;
         private final List<String> selectedFolders;
+        private final int maxLocationError;
+        private final List<LocationFilter> locationFilters = new ArrayList<>();
+        private final LoadedData previouslyLoaded;
+        private final List<long[]> missingRanges;
+        private final LocationData displayed;
+        private final boolean refreshOnly;
         private static final int minLocationAccuracy = 100;
-        private static final int maxMediaItems = 1000;
-        private TreeMap<Long, LocationHistoryItem> locationHistory = new TreeMap<>();
+        // Geotagged media loaded so far is published at most this often while loading.
+        private static final long publishIntervalMs = 1000;
+        private static int nextLoadId = 0;
+        private final int loadId;
+        // Media taken further than this from any location sample isn't placed.
+        private static final LocationInterpolator interpolator = new LocationInterpolator(12 * 60 * 60 * 1000);
+        private LocationHistoryCache.Key historyKey;
+        private MediaIndex mediaIndex;
+        private int mediaGeneration;
+        private Set<String> folderSet;
+        private List<long[]> historyRanges;
+        private List<long[]> mediaRanges;
+        // Media added, modified or removed (in the previously loaded range) since the previous load.
+        private List<MediaIndex.Entry> changedMedia = new ArrayList<>();
+        private Set<Long> removedMediaIds = new HashSet<>();
+        private boolean reuseHistory;
+        private boolean reuseMedia;
+        private boolean unchanged = false;
+        // Set once checkForChanges() has synced the media index.
+        private volatile boolean mediaIndexSynced = false;
+        private LocationHistory.Builder historyBuilder = new LocationHistory.Builder();
         private List<MediaItem> mediaItems = new ArrayList<>();
         private List<MediaItem> mediaItemsNoLocation = new ArrayList<>();
-
+        // Media published while loading, each batch is only copied once.
+        private final List<List<MediaItem>> publishedBatches = new ArrayList<>();
+        // Items published, and how many of them are from mediaItems.
+        private int publishedCount = 0;
+        private int publishedMediaItems = 0;
+        private long nextPublishTime = SystemClock.uptimeMillis() + publishIntervalMs;
+        private LoadedData loadedData;
+        private LocationHistory locationHistory = LocationHistory.EMPTY;
+        private List<MediaItem> displayedMediaItems = new ArrayList<>();
+        private Set<Long> displayedRemovedIds = new HashSet<>();
+
+        /**
+         * @param displayed the data to refresh, or null for a new load.
+         */
         private LoadDataAsync(LocationDataRepository repo,
                               long startTime, long endTime, Uri locationHistoryFile,
-                              List<String> selectedFolders) {
+                              List<String> selectedFolders, int maxLocationError, LoadedData previouslyLoaded,
+                              List<long[]> missingRanges, LocationData displayed) {
             super();
             this.repository = new WeakReference<>(repo);
             this.startTime = startTime;
             this.endTime = endTime;
             this.locationHistoryFile = locationHistoryFile;
             this.selectedFolders = selectedFolders;
+            this.maxLocationError = maxLocationError;
+            if (maxLocationError > 0) {
+                // The filters' error bounds add up, so split it between them.
+                locationFilters.add(new DwellFilter(maxLocationError / 2d, 5 * 60 * 1000));
+                locationFilters.add(new MinDeltaFilter(maxLocationError / 2d));
+            }
+            this.previouslyLoaded = previouslyLoaded;
+            this.missingRanges = missingRanges;
+            this.displayed = displayed;
+            this.refreshOnly = displayed != null;
+            this.loadId = displayed != null ? displayed.loadId : nextLoadId++;
         }
 
         @Override
         protected Void doInBackground(Void... v) {
             // TODO: Weighted progress, so each sub-task sets 0 -> 100 and overall progress determined from that
             // TODO: Move sub-tasks (especially getLocationHistory()) somewhere else, they should be reusable
-            Runnable[] subTasks = {
-                this::getLocationHistory,
-                this::getMedia,
-                this::interpolateMediaLocations};
+            checkForChanges();
+            if (unchanged) {
+                loadedData = previouslyLoaded;
+                if (!refreshOnly)
+                    interpolateMediaLocations();
+                return null;
+            }
+
+            List<Runnable> subTasks = new ArrayList<>();
+            if (!historyRanges.isEmpty())
+                subTasks.add(() -> getLocationHistory(historyRanges));
+            if (mediaIndex != null) {
+                for (long[] range : mediaRanges)
+                    subTasks.add(() -> getMedia(mediaIndex.query(folderSet, range[0], range[1])));
+                subTasks.add(() -> getMedia(changedMedia));
+            }
+            subTasks.add(this::mergeLoadedData);
+            subTasks.add(this::interpolateMediaLocations);
+            if (refreshOnly)
+                subTasks.add(this::diffDisplayedMediaItems);
 
             for (Runnable task : subTasks) {
                 if (isCancelled())
@@ -171,14 +513,26 @@ public class LocationDataRepository {
         @Override
         protected void onPostExecute(Void v) {
             super.onPostExecute(v);
+            LocationDataRepository repo = repository.get();
+            if (repo != null && repo.mMediaChangedDuringLoad) {
+                // Not necessarily included in this load, check again once it's finished.
+                repo.mMediaChangedDuringLoad = false;
+                repo.mMainHandler.post(repo.mMediaChangedRunnable);
+            }
+            // Nothing to publish if a refresh found nothing had changed.
+            if (repo == null || (unchanged && refreshOnly))
+                return;
             LocationData locationData = new LocationData();
-            locationData.mMediaItems = mediaItems;
+            locationData.mMediaItems = displayedMediaItems;
             locationData.locationHistory = locationHistory;
-            LocationDataRepository repo = repository.get();
-            if (repo != null) {
-                repo.mLocationData.setValue(locationData);
-                repo.mLoadCompleted = true;
+            locationData.loadId = loadId;
+            if (refreshOnly) {
+                locationData.revision = displayed.revision + 1;
+                locationData.removedIds = displayedRemovedIds;
             }
+            repo.mLoadedData = loadedData;
+            repo.mLocationData.setValue(locationData);
+            repo.mLoadCompleted = true;
         }
 
         @Override
@@ -188,7 +542,77 @@ public class LocationDataRepository {
                 repo.mProgress.setValue(values[0]);
         }
 
-        private void getLocationHistory() {
+        /**
+         * Fingerprints the file and syncs the media index, deciding which parts of the previous load
+         * can be reused. A changed file is reloaded over the whole previously loaded range, while
+         * only the media that changed is reloaded.
+         */
+        private void checkForChanges() {
+            historyRanges = missingRanges;
+            mediaRanges = missingRanges;
+            LocationDataRepository repo = repository.get();
+            if (repo == null)
+                return;
+            boolean hasHistoryFile = locationHistoryFile != null && !locationHistoryFile.toString().isEmpty();
+            if (hasHistoryFile)
+                historyKey = LocationHistoryCache.Key.query(repo.mContext, locationHistoryFile);
+            folderSet = new HashSet<>(selectedFolders);
+            mediaIndex = repo.getMediaIndex();
+            boolean synced = mediaIndex.sync(repo.mContext);
+            mediaIndex.write();
+            // Other syncs (e.g. by the folder list) may run at any time, so the changes are taken
+            // relative to the previous load rather than from this sync. Changes after this
+            // generation that are loaded anyway are just loaded again next time.
+            mediaGeneration = mediaIndex.getGeneration();
+            mediaIndexSynced = true;
+            repo.mMainHandler.post(repo::onMediaIndexSynced);
+
+            LoadedData previous = previouslyLoaded;
+            if (previous == null)
+                return;
+            // An unknown fingerprint is treated as changed.
+            reuseHistory = historyKey != null ? historyKey.equals(previous.historyKey) : !hasHistoryFile;
+            // Without the changes since the previous load, the media is loaded again.
+            MediaIndex.Delta delta = synced ? mediaIndex.changesSince(previous.mediaGeneration) : null;
+            reuseMedia = delta != null;
+            if (reuseMedia) {
+                // Modified media is removed then loaded again.
+                for (MediaIndex.Entry entry : delta.changed) {
+                    if (MediaIndex.matches(entry, folderSet, previous.startTime, previous.endTime))
+                        changedMedia.add(entry);
+                    removedMediaIds.add(entry.id);
+                }
+                removedMediaIds.addAll(delta.removedIds);
+            }
+            unchanged = reuseHistory && reuseMedia && missingRanges.isEmpty() && changedMedia.isEmpty() &&
+                    !containsAny(previous.mediaItems, removedMediaIds) &&
+                    !containsAny(previous.mediaItemsNoLocation, removedMediaIds);
+            List<long[]> wholeRange = new ArrayList<>();
+            wholeRange.add(new long[] {
+                    Math.min(startTime, previous.startTime), Math.max(endTime, previous.endTime) });
+            if (!reuseHistory) {
+                Log.i(TAG, "Location history changed, reloading");
+                historyRanges = wholeRange;
+            }
+            if (!reuseMedia) {
+                Log.i(TAG, "Media changes unknown, reloading");
+                mediaRanges = wholeRange;
+            } else if (!changedMedia.isEmpty() || !removedMediaIds.isEmpty()) {
+                Log.i(TAG, "Media changed, " + changedMedia.size() + " to load");
+            }
+        }
+
+        private static boolean containsAny(List<MediaItem> items, Set<Long> ids) {
+            if (ids.isEmpty())
+                return false;
+            for (MediaItem m : items) {
+                if (ids.contains(m.mId))
+                    return true;
+            }
+            return false;
+        }
+
+        private void getLocationHistory(List<long[]> ranges) {
             // Extract location history info from google takeout if available.
             publishProgress(2);
 
@@ -196,204 +620,376 @@ public class LocationDataRepository {
             if (repo == null || locationHistoryFile == null || locationHistoryFile.toString().isEmpty())
                 return;
 
-            Log.i(TAG, "Attempting to read \"Location History.json\"");
+            LocationHistoryCache.Key cacheKey = historyKey;
+            File cacheFile = LocationHistoryCache.getFile(repo.mContext, locationHistoryFile);
+            File indexFile = LocationHistoryIndex.getFile(repo.mContext, locationHistoryFile);
+            List<long[]> unread = new ArrayList<>();
+            for (long[] range : ranges) {
+                if (cacheKey == null || !LocationHistoryCache.read(cacheFile, cacheKey, minLocationAccuracy,
+                        range[0], range[1], historyBuilder::add))
+                    unread.add(range);
+            }
+            if (unread.isEmpty()) {
+                Log.i(TAG, "Read location history from cache");
+                publishProgress(70);
+                return;
+            }
 
-            try (InputStream stream = repo.mContext.getContentResolver().openInputStream(locationHistoryFile);
-                 JsonReader reader = new JsonReader(new InputStreamReader(stream, Charset.forName("UTF-8")))) {
-                if (stream == null)
-                    return;
+            // The cache may have been evicted, in which case the index still avoids a full scan
+            // for short ranges. Longer ranges do the full scan, which rebuilds the cache.
+            LocationHistoryIndex index = cacheKey != null ? LocationHistoryIndex.read(indexFile, cacheKey) : null;
+            long rangeSize = 0;
+            for (long[] range : unread)
+                rangeSize += index != null ? index.rangeSize(range[0], range[1], cacheKey.size) : 0;
+            if (index != null && rangeSize < cacheKey.size / 4) {
+                for (long[] range : unread)
+                    readLocationHistoryRange(repo, index, range[0], range[1]);
+            } else {
+                // A single scan, even if the range was widened on both sides.
+                readLocationHistory(repo, cacheKey, cacheFile, indexFile, unread);
+            }
+            publishProgress(70);
+        }
 
-                // TODO: Available isn't really correct here, but works for now..
-                long availableEstimate = stream.available();
-                int progressIndex = 0;
-
-                reader.beginObject();
-                reader.nextName(); // "locations"
-                reader.beginArray();
-                while (reader.hasNext()) {
-                    // TODO: This is faster than gson.fromJson(...), but still not really fast enough...
-                    reader.beginObject();
-                    reader.nextName(); // "timestampMs"
-                    long timestamp = reader.nextLong();
-                    if (timestamp >= startTime && timestamp <= endTime) {
-                        reader.nextName(); // "latitudeE7"
-                        long lat = reader.nextLong();
-                        reader.nextName(); // "longitudeE7"
-                        long lng = reader.nextLong();
-                        reader.nextName(); // "accuracy"
-                        int accuracy = reader.nextInt();
-                        if (accuracy <= minLocationAccuracy)
-                            locationHistory.put(timestamp, new LocationHistoryItem(timestamp, lat, lng));
-                    }
-                    if (++progressIndex == 1000) {
-                        progressIndex = 0;
+        /**
+         * Reads only the records in [startTime, endTime], using the index to seek to the first one.
+         */
+        private void readLocationHistoryRange(LocationDataRepository repo, LocationHistoryIndex index,
+                                              long startTime, long endTime) {
+            Log.i(TAG, "Attempting to read \"Location History.json\" using index");
+
+            try (ParcelFileDescriptor fd = repo.mContext.getContentResolver().openFileDescriptor(locationHistoryFile, "r");
+                 FileInputStream stream = new FileInputStream(fd.getFileDescriptor());
+                 FileChannel channel = stream.getChannel()) {
+                LocationHistoryScanner scanner = new LocationHistoryScanner(channel);
+                scanner.seek(index.seekOffset(startTime));
+                final int[] progressIndex = {0};
+                scanner.scanRecords(Long.MAX_VALUE, (timestamp, lat, lng, accuracy) -> {
+                    // Records are sorted, nothing more to read.
+                    if (timestamp > endTime)
+                        return false;
+                    if (timestamp >= startTime && accuracy <= minLocationAccuracy)
+                        historyBuilder.add(timestamp, lat, lng);
+                    if (++progressIndex[0] == 1000) {
+                        progressIndex[0] = 0;
                         // 2 -> 70% progress
-                        int progress = Math.min(2 + (int)((availableEstimate - stream.available()) * 68L / availableEstimate), 70);
-                        publishProgress(progress);
-                        if (isCancelled())
-                            break;
+                        long elapsed = Math.max(timestamp - startTime, 0);
+                        publishProgress(Math.min(2 + (int) (elapsed * 68L / Math.max(endTime - startTime, 1)), 70));
+                        return !isCancelled();
+                    }
+                    return true;
+                });
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to read \"Location History.json\": " + e.toString());
+            }
+        }
+
+        /**
+         * Scans the whole file, building the cache and index as it goes. The file may also be a
+         * Takeout zip, which is streamed (the index isn't built since a zip entry can't be seeked).
+         */
+        private void readLocationHistory(LocationDataRepository repo, LocationHistoryCache.Key cacheKey,
+                                         File cacheFile, File indexFile, List<long[]> ranges) {
+            Log.i(TAG, "Attempting to read \"Location History.json\"");
+
+            // Every accurate point is cached (not just the requested range) so a later load with a
+            // different range can be served from the cache as well.
+            LocationHistoryCache.Writer cacheWriter = cacheKey != null ?
+                    LocationHistoryCache.Writer.open(cacheFile, cacheKey, minLocationAccuracy) : null;
+            LocationHistoryIndex index = new LocationHistoryIndex();
+            try (ParcelFileDescriptor fd = repo.mContext.getContentResolver().openFileDescriptor(locationHistoryFile, "r");
+                 FileInputStream stream = new FileInputStream(fd.getFileDescriptor());
+                 FileChannel channel = stream.getChannel()) {
+                final LocationHistoryCache.Writer writer = cacheWriter;
+                final TakeoutZip zipEntry = TakeoutZip.isZip(channel) ? TakeoutZip.find(channel) : null;
+                // A compressed entry's inflater is only released when its channel is closed.
+                try (ReadableByteChannel entryChannel = zipEntry != null ? zipEntry.open(channel) : null) {
+                    final LocationHistoryScanner zipScanner;
+                    final ParallelLocationHistoryScanner scanner;
+                    final long size;
+                    if (zipEntry != null) {
+                        Log.i(TAG, "Reading " + zipEntry.name + " from zip");
+                        zipScanner = new LocationHistoryScanner(entryChannel);
+                        scanner = null;
+                        size = zipEntry.size;
+                    } else {
+                        if (TakeoutZip.isZip(channel))
+                            throw new IOException("No \"Location History.json\" in zip");
+                        zipScanner = null;
+                        scanner = new ParallelLocationHistoryScanner(channel, Runtime.getRuntime().availableProcessors());
+                        scanner.setIndex(index);
+                        size = channel.size();
+                    }
+                    final int[] progressIndex = {0};
+                    LocationHistoryScanner.Listener listener = (timestamp, lat, lng, accuracy) -> {
+                        if (accuracy <= minLocationAccuracy) {
+                            if (writer != null)
+                                writer.add(timestamp, lat, lng);
+                            if (inRanges(ranges, timestamp))
+                                historyBuilder.add(timestamp, lat, lng);
+                        }
+                        if (++progressIndex[0] == 1000) {
+                            progressIndex[0] = 0;
+                            // 2 -> 70% progress
+                            long position = zipScanner != null ? zipScanner.position() : scanner.position();
+                            publishProgress(Math.min(2 + (int) (position * 68L / Math.max(size, 1)), 70));
+                            return !isCancelled();
+                        }
+                        return true;
+                    };
+                    if (zipScanner != null)
+                        zipScanner.scan(listener);
+                    else
+                        scanner.scan(listener);
+                }
+                if (cacheKey != null && !isCancelled()) {
+                    index.write(indexFile, cacheKey);
+                    if (cacheWriter != null) {
+                        cacheWriter.commit();
+                        cacheWriter = null;
                     }
-                    while (reader.hasNext())
-                        reader.skipValue();
-                    reader.endObject();
                 }
             } catch (Exception e) {
                 Log.w(TAG, "Failed to read \"Location History.json\": " + e.toString());
+            } finally {
+                if (cacheWriter != null)
+                    cacheWriter.abort();
             }
-            publishProgress(70);
         }
 
-        private void getMedia() {
+        private static boolean inRanges(List<long[]> ranges, long timestamp) {
+            for (long[] range : ranges) {
+                if (timestamp >= range[0] && timestamp <= range[1])
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Reads the locations of media from the index, from the cache or the files themselves.
+         */
+        private void getMedia(List<MediaIndex.Entry> entries) {
             // NOTE: Date added is used for time stamping rather than date taken, since Snapchat doesn't
             // seem to add that to the media metadata. Also trying to combine these is difficult as date
             // taken is in milliseconds and date added is in seconds...
 
             // Location metadata is not available anymore via MediaStore.Images.Media.LATITUDE/LONGITUDE.
-            // Bit hacky to use "MediaStore.Images.Media." here, but video files have these same fields.
             LocationDataRepository repo = repository.get();
-            if (repo == null)
+            if (repo == null || entries.isEmpty())
                 return;
 
-            String[] projection = {
-                    MediaStore.Files.FileColumns._ID,
-                    MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
-                    MediaStore.Images.Media.DATE_TAKEN,
-                    MediaStore.Images.Media.DATE_ADDED,
-                    MediaStore.Files.FileColumns.DATA,
-                    MediaStore.Files.FileColumns.MEDIA_TYPE
-            };
-            Uri external = MediaStore.Files.getContentUri("external");
-            String selection = "(" + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                    MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + " OR " +
-                    MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                    MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO + ")";
-            List<String> selectedFoldersFmt = new ArrayList<>();
-            for (String folder : selectedFolders)
-                selectedFoldersFmt.add(MediaStore.Images.Media.BUCKET_DISPLAY_NAME + "=\"" + folder + "\"");
-            if (selectedFoldersFmt.size() > 0)
-                selection += " AND (" + TextUtils.join(" OR ", selectedFoldersFmt) + ")";
-            // Date added is in seconds rather than milliseconds
-            selection += " AND (" + MediaStore.Images.Media.DATE_ADDED + ">=" + startTime / 1000 +
-                    " AND " + MediaStore.Images.Media.DATE_ADDED + "<=" + endTime / 1000 + ")";
-            try (Cursor cur = repo.mContext.getContentResolver().query(external,
-                    projection, selection, null,
-                    MediaStore.Images.Media.DATE_ADDED + " DESC")) {
-                if (cur == null || !cur.moveToFirst())
-                    return;
-//                Log.i(TAG, "media query count=" + cur.getCount());
-                int idColumn = cur.getColumnIndex(MediaStore.Files.FileColumns._ID);
-                int bucketColumn = cur.getColumnIndex(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
-                int dateColumn = cur.getColumnIndex(MediaStore.Images.Media.DATE_TAKEN);
-                int dateAddedColumn = cur.getColumnIndex(MediaStore.Images.Media.DATE_ADDED);
-                int dataColumn = cur.getColumnIndex(MediaStore.Files.FileColumns.DATA);
-                int typeColumn = cur.getColumnIndex(MediaStore.Files.FileColumns.MEDIA_TYPE);
+            MediaLocationCache locationCache = repo.getMediaLocationCache();
+            // Opening files is mostly waiting on storage, which handles several reads at once.
+            int threadCount = Math.max(4, Math.min(Runtime.getRuntime().availableProcessors() * 2, 8));
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            ExifGpsReader exifReader = new ExifGpsReader();
+            Mp4LocationReader videoReader = new Mp4LocationReader();
+            try {
                 int mediaItemsLoaded = 0;
-                int totalMediaItems = cur.getCount();
                 int progress = 0;
-                do {
-                    long id = cur.getLong(idColumn);
-                    String bucket = cur.getString(bucketColumn);
-                    String dateStr = cur.getString(dateColumn);
-                    String dateAddedStr = cur.getString(dateAddedColumn);
-                    String data = cur.getString(dataColumn);
-                    int type = cur.getInt(typeColumn);
-                    float[] latLong = {0, 0};
-                    boolean hasLatLng = false;
-
-                    // Can't find a metadata interface that works for images and video so they use
-                    // ExifInterface and FFmpegMediaMetadataRetriever respectively.
-                    if (type == MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE) {
-                        ExifInterface exifInterface;
-                        try {
-                            exifInterface = new ExifInterface(data);
-                            hasLatLng = exifInterface.getLatLong(latLong);
-                        } catch (IOException e) {
-                            Log.w(TAG, "EXIF load failed: " + e.toString());
+                int next = 0;
+                // Entries are queued here while locations are read on the executor, results are
+                // handled in order. Limited so memory use doesn't depend on the media count.
+                ArrayDeque<PendingMediaItem> pending = new ArrayDeque<>();
+                while (true) {
+                    while (pending.size() < threadCount * 4 && next < entries.size()) {
+                        MediaIndex.Entry entry = entries.get(next++);
+                        PendingMediaItem item = new PendingMediaItem(entry.id, entry.path, entry.date,
+                                entry.dateAdded, entry.dateModified, entry.type);
+                        // Images are read by ExifGpsReader and videos by Mp4LocationReader, both cached.
+                        item.latLong = locationCache.get(entry.id, entry.dateModified, entry.size);
+                        if (item.latLong == null) {
+                            item.future = executor.submit(() -> readMediaLocation(exifReader, videoReader,
+                                    locationCache, entry.id, entry.dateModified, entry.size, entry.type, entry.path));
                         }
+                        pending.add(item);
                     }
-                    // TODO: Use (FFmpeg)MediaMetadataRetriever to get video location data as well
-                    // TODO: Re-enable this after open source regex compile error fixed.
-//                    else {
-//                        try {
-//                            FFmpegMediaMetadataRetriever metaData = new FFmpegMediaMetadataRetriever();
-//                            metaData.setDataSource(data);
-//                            String locationStr = metaData.extractMetadata("location");
-//                            metaData.release();
-//                            // Format is ISO 6709, e.g. "+49.2470+006.8340/", se open source parser.
-//                            if (locationStr != null) {
-//                                PointLocation pl = PointLocationParser.parsePointLocation(locationStr);
-//                                latLong[0] = (float) pl.getLatitude().getDegrees();
-//                                latLong[1] = (float) pl.getLatitude().getDegrees();
-//                                hasLatLng = true;
-//                            }
-//                        } catch (ParserException e) {
-//                            Log.w(TAG, "Metadata load failed: " + e.toString());
-//                        }
-//                    }
-
-//                    Log.d(TAG, "bucket=" + bucket + ", data=" + data +
-//                            ", date_taken=" + dateStr + ", date_added=" + dateAddedStr +
-//                            ", gps=" + hasLatLng + ", lat=" + latLong[0] + ", lng=" + latLong[1] +
-//                            ", type=" + type);
-
-                    long date;
-                    if (dateStr != null) {
-                        date = Long.decode(dateStr);
-                    } else if (dateAddedStr != null) {
-                        // dateAdded is seconds rather than ms
-                        date = Long.decode(dateAddedStr) * 1000L;
-                    } else {
-                        Log.i(TAG, "Media with no date info: " + bucket + " - " + data);
-                        continue;
-                    }
-                    LatLng latLng = new LatLng(latLong[0], latLong[1]);
-                    MediaItem mediaItem = new MediaItem(latLng, data, id, date, type);
-                    if (hasLatLng) {
-                        mediaItems.add(mediaItem);
-                        locationHistory.put(date, new LocationHistoryItem(date, latLng));
+                    if (pending.isEmpty())
+                        break;
+
+                    PendingMediaItem item = pending.remove();
+                    float[] latLong = item.getLatLong();
+                    if (latLong != null && latLong != MediaLocationCache.NO_LOCATION) {
+                        LatLng latLng = new LatLng(latLong[0], latLong[1]);
+                        mediaItems.add(new MediaItem(latLng, item.mediaPath, item.id, item.date,
+                                item.dateAdded, item.dateModified, item.type));
                     }
                     else {
-                        mediaItemsNoLocation.add(mediaItem);
+                        mediaItemsNoLocation.add(new MediaItem(new LatLng(0, 0), item.mediaPath, item.id,
+                                item.date, item.dateAdded, item.dateModified, item.type));
                     }
-                    // Limit the number of media items for performance.
-                    if (++mediaItemsLoaded >= maxMediaItems)
-                        break;
+                    // A refresh only loads a few changes, which are published as one.
+                    ++mediaItemsLoaded;
+                    if (!refreshOnly && SystemClock.uptimeMillis() >= nextPublishTime)
+                        publishMediaItems(repo);
 
                     // 70 -> 98% progress
-                    int newProgress = 70 + mediaItemsLoaded * 28 / Math.min(totalMediaItems, maxMediaItems);
+                    int newProgress = 70 + mediaItemsLoaded * 28 / entries.size();
                     if (newProgress > progress) {
                         progress = newProgress;
                         publishProgress(progress);
                         if (isCancelled())
                             break;
                     }
-                } while (cur.moveToNext());
+                }
+            } finally {
+                executor.shutdownNow();
+                locationCache.write();
+                Log.i(TAG, "EXIF locations read: " + exifReader.getStats());
+                Log.i(TAG, "Video locations read: " + videoReader.getStats());
             }
             publishProgress(98);
         }
 
+        /**
+         * Publishes the geotagged media loaded so far, so markers show up while the rest of a large
+         * library loads. Items without a location are only added once the load completes, since
+         * they're interpolated from the full location history.
+         *
+         * Only the items loaded since the last publish are copied, and are marked as new so the
+         * map only has to add those.
+         */
+        private void publishMediaItems(LocationDataRepository repo) {
+            nextPublishTime = SystemClock.uptimeMillis() + publishIntervalMs;
+            if (mediaItems.size() == publishedMediaItems)
+                return;
+            int newItemsStart = publishedCount;
+            if (publishedBatches.isEmpty() && previouslyLoaded != null && reuseMedia) {
+                List<MediaItem> items = new ArrayList<>();
+                for (MediaItem m : previouslyLoaded.mediaItems) {
+                    if (inRange(m) && !removedMediaIds.contains(m.mId))
+                        items.add(m);
+                }
+                publishedBatches.add(items);
+                publishedCount += items.size();
+            }
+            List<MediaItem> batch = new ArrayList<>(mediaItems.subList(publishedMediaItems, mediaItems.size()));
+            publishedMediaItems = mediaItems.size();
+            publishedBatches.add(batch);
+            publishedCount += batch.size();
+            LocationData locationData = new LocationData();
+            locationData.mMediaItems = new BatchList(new ArrayList<>(publishedBatches), publishedCount);
+            locationData.newItemsStart = newItemsStart;
+            locationData.loadId = loadId;
+            locationData.complete = false;
+            repo.mMainHandler.post(() -> {
+                if (repo.mCurrentTask == this && !isCancelled())
+                    repo.mLocationData.setValue(locationData);
+            });
+        }
+
+        private void mergeLoadedData() {
+            LoadedData previous = previouslyLoaded;
+            List<MediaItem> mergedMediaItems = new ArrayList<>(mediaItems);
+            List<MediaItem> mergedMediaItemsNoLocation = new ArrayList<>(mediaItemsNoLocation);
+            long loadedStartTime = startTime;
+            long loadedEndTime = endTime;
+            if (previous != null) {
+                loadedStartTime = Math.min(startTime, previous.startTime);
+                loadedEndTime = Math.max(endTime, previous.endTime);
+            }
+            if (previous != null && reuseMedia) {
+                // Range boundaries are only accurate to a second for media, so skip duplicates.
+                Set<Long> ids = new HashSet<>(removedMediaIds);
+                for (MediaItem m : mergedMediaItems)
+                    ids.add(m.mId);
+                for (MediaItem m : mergedMediaItemsNoLocation)
+                    ids.add(m.mId);
+                for (MediaItem m : previous.mediaItems) {
+                    if (!ids.contains(m.mId))
+                        mergedMediaItems.add(m);
+                }
+                for (MediaItem m : previous.mediaItemsNoLocation) {
+                    if (!ids.contains(m.mId))
+                        mergedMediaItemsNoLocation.add(m);
+                }
+            }
+            // Only newly loaded samples are filtered, the previous ones already were. Each loaded
+            // range is filtered on its own, the gap between them isn't a stretch of the track.
+            LocationHistory loadedHistory = historyBuilder.build();
+            historyBuilder = null;
+            LocationHistory fileHistory = loadedHistory;
+            if (!locationFilters.isEmpty()) {
+                LocationHistory.Builder filtered = new LocationHistory.Builder(loadedHistory.size() / 4);
+                for (long[] range : historyRanges)
+                    filtered.addAll(LocationFilter.applyAll(locationFilters, loadedHistory.subRange(range[0], range[1])));
+                fileHistory = filtered.build();
+                Log.i(TAG, "Location filters kept " + fileHistory.size() + " of " + loadedHistory.size() + " points");
+            }
+            if (previous != null && reuseHistory && !previous.fileHistory.isEmpty()) {
+                fileHistory = new LocationHistory.Builder(previous.fileHistory.size() + fileHistory.size())
+                        .addAll(previous.fileHistory)
+                        .addAll(fileHistory)
+                        .build();
+            }
+            // Geotagged media are location samples too, taking precedence over the file's.
+            LocationHistory mergedHistory = fileHistory;
+            if (!mergedMediaItems.isEmpty()) {
+                LocationHistory.Builder builder = new LocationHistory.Builder(
+                        fileHistory.size() + mergedMediaItems.size());
+                builder.addAll(fileHistory);
+                for (MediaItem m : mergedMediaItems)
+                    builder.add(m.date, m.getPosition());
+                mergedHistory = builder.build();
+            }
+            loadedData = new LoadedData(loadedStartTime, loadedEndTime, locationHistoryFile.toString(),
+                    selectedFolders, maxLocationError, historyKey, fileHistory, mergedHistory,
+                    mergedMediaItems, mergedMediaItemsNoLocation, mediaGeneration);
+        }
+
+        /**
+         * Runs on the executor.
+         * @return {latitude, longitude}, or null if the file has no location.
+         */
+        private static float[] readMediaLocation(ExifGpsReader exifReader, Mp4LocationReader videoReader,
+                                                 MediaLocationCache locationCache, long id, long dateModified,
+                                                 long size, int type, String path) {
+            try {
+                float[] latLong = type == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO ?
+                        videoReader.read(path) : exifReader.read(path);
+                locationCache.put(id, dateModified, size, latLong);
+                return latLong;
+            } catch (IOException e) {
+                // Not cached, the file may be readable next time.
+                Log.w(TAG, "Location load failed: " + e.toString());
+                return null;
+            }
+        }
+
+        private boolean inRange(MediaItem m) {
+            // Same as the media query, date added is in seconds.
+            return m.dateAdded >= startTime / 1000 && m.dateAdded <= endTime / 1000;
+        }
+
         private void interpolateMediaLocations() {
-            for (MediaItem m : mediaItemsNoLocation) {
-                Map.Entry<Long, LocationHistoryItem> floorEntry = locationHistory.floorEntry(m.date);
-                Map.Entry<Long, LocationHistoryItem> ceilingEntry = locationHistory.ceilingEntry(m.date);
-                if (floorEntry == null && ceilingEntry == null)
-                    continue;
-                else if (floorEntry == null)
-                    floorEntry = ceilingEntry;
-                else if (ceilingEntry == null)
-                    ceilingEntry = floorEntry;
-                LocationHistoryItem floorItem = floorEntry.getValue();
-                LocationHistoryItem ceilingItem = ceilingEntry.getValue();
-                double fraction = 0.5d;
-                // Check for divide by 0.
-                if (ceilingItem.timestampMs != floorItem.timestampMs)
-                    fraction = (double) (m.date - floorItem.timestampMs) /
-                            (ceilingItem.timestampMs - floorItem.timestampMs);
-                LatLng interpolatedLatLng = SphericalUtil.interpolate(floorItem.latLng, ceilingItem.latLng, fraction);
-                MediaItem updatedMediaItem = new MediaItem(interpolatedLatLng, m.mediaPath, m.mId, m.date, m.type);
-                mediaItems.add(updatedMediaItem);
+            locationHistory = loadedData.locationHistory.subRange(startTime, endTime);
+            for (MediaItem m : loadedData.mediaItems) {
+                if (inRange(m))
+                    displayedMediaItems.add(m);
             }
+            List<MediaItem> noLocation = new ArrayList<>();
+            for (MediaItem m : loadedData.mediaItemsNoLocation) {
+                if (inRange(m))
+                    noLocation.add(m);
+            }
+            displayedMediaItems.addAll(interpolator.interpolate(locationHistory, noLocation));
             publishProgress(100);
         }
+
+        /**
+         * Finds the displayed items that were removed or changed (which includes interpolated items
+         * that moved), so a refresh only updates those.
+         */
+        private void diffDisplayedMediaItems() {
+            Map<Long, MediaItem> items = new HashMap<>();
+            for (MediaItem m : displayedMediaItems)
+                items.put(m.mId, m);
+            for (MediaItem m : displayed.mMediaItems) {
+                MediaItem item = items.get(m.mId);
+                if (item == null || !item.getPosition().equals(m.getPosition()) || item.date != m.date ||
+                        !item.mediaPath.equals(m.mediaPath) || item.dateModified != m.dateModified)
+                    displayedRemovedIds.add(m.mId);
+            }
+        }
     }
 }
@@ -0,0 +1,41 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+import java.util.List;
+
+/**
+ * Ingest stage thinning out location history. A filter only drops or moves samples by so much
+ * that interpolating between the remaining samples stays within its error bound of the original
+ * track. Chained filters work on each other's output, so their bounds add up.
+ */
+public abstract class LocationFilter {
+    private static final double METRES_PER_E7 = 6371009 * Math.PI / 180 / 10000000d;
+
+    /**
+     * @return the filtered history, or history itself if nothing was filtered.
+     */
+    public abstract LocationHistory apply(@NonNull LocationHistory history);
+
+    /**
+     * @return history passed through each filter in turn.
+     */
+    public static LocationHistory applyAll(@NonNull List<LocationFilter> filters, @NonNull LocationHistory history) {
+        for (LocationFilter filter : filters)
+            history = filter.apply(history);
+        return history;
+    }
+
+    /**
+     * Squared distance in metres, using a flat approximation which is fine over the short
+     * distances filters compare.
+     */
+    static double distanceSq(int latitudeE7a, int longitudeE7a, int latitudeE7b, int longitudeE7b) {
+        double dy = (latitudeE7b - latitudeE7a) * METRES_PER_E7;
+        double dx = (longitudeE7b - longitudeE7a) * METRES_PER_E7 *
+                Math.cos(Math.toRadians(latitudeE7a / 10000000d));
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,405 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Binary sidecar for a parsed "Location History.json", so reloads don't need to touch the JSON.
+ *
+ * Points are stored in blocks of {@link #BLOCK_SIZE}, each block holding three columns
+ * (timestamp, latitudeE7, longitudeE7) of zigzag/varint encoded deltas. A directory at the end of
+ * the file holds the time range and CRC32 of every block, so a read only decodes the blocks it
+ * needs, and a damaged file is rejected before any of it is used.
+ */
+class LocationHistoryCache {
+    private static final String TAG = "LocationHistoryCache";
+    private static final int MAGIC = 0x474c4843; // "GLHC"
+    private static final int VERSION = 2;
+    private static final int BLOCK_SIZE = 4096;
+    private static final String CACHE_DIR = "location_history";
+    // minTime, maxTime, count, offset, length, CRC32.
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 8 + 4 + 4 + 4 + 4;
+
+    interface Visitor {
+        void onLocation(long timestampMs, int latitudeE7, int longitudeE7);
+    }
+
+    /**
+     * Fingerprint of the source file the cache was built from: size, modified time and a hash of
+     * a few samples of its content (modified times aren't reliable for every document provider).
+     */
+    static class Key {
+        private static final int HASH_SAMPLES = 16;
+        private static final int HASH_SAMPLE_SIZE = 4096;
+        final String uri;
+        final long size;
+        final long lastModified;
+        final long contentHash;
+
+        Key(String uri, long size, long lastModified, long contentHash) {
+            this.uri = uri;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * Queries the size and modified time of a document and hashes samples of its content.
+         * @return the key, or null if the size is unknown.
+         */
+        static Key query(@NonNull Context context, @NonNull Uri uri) {
+            long size;
+            long lastModified = 0;
+            if ("file".equals(uri.getScheme())) {
+                File file = new File(uri.getPath());
+                if (!file.exists())
+                    return null;
+                size = file.length();
+                lastModified = file.lastModified();
+            } else {
+                String[] projection = { OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED };
+                try (Cursor cur = context.getContentResolver().query(uri, projection, null, null, null)) {
+                    if (cur == null || !cur.moveToFirst())
+                        return null;
+                    int sizeColumn = cur.getColumnIndex(OpenableColumns.SIZE);
+                    int modifiedColumn = cur.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                    if (sizeColumn < 0 || cur.isNull(sizeColumn))
+                        return null;
+                    size = cur.getLong(sizeColumn);
+                    if (modifiedColumn >= 0 && !cur.isNull(modifiedColumn))
+                        lastModified = cur.getLong(modifiedColumn);
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to query " + uri + ": " + e.toString());
+                    return null;
+                }
+            }
+            return new Key(uri.toString(), size, lastModified, hashSamples(context, uri, size));
+        }
+
+        private static long hashSamples(Context context, Uri uri, long size) {
+            CRC32 crc = new CRC32();
+            try (ParcelFileDescriptor fd = context.getContentResolver().openFileDescriptor(uri, "r");
+                 FileInputStream stream = new FileInputStream(fd.getFileDescriptor());
+                 FileChannel channel = stream.getChannel()) {
+                ByteBuffer buf = ByteBuffer.allocate(HASH_SAMPLE_SIZE);
+                long span = Math.max(size - HASH_SAMPLE_SIZE, 0);
+                for (int i = 0; i < HASH_SAMPLES; i++) {
+                    buf.clear();
+                    channel.read(buf, span * i / (HASH_SAMPLES - 1));
+                    crc.update(buf.array(), 0, buf.position());
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to hash " + uri + ": " + e.toString());
+                return 0;
+            }
+            return crc.getValue();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return uri.equals(key.uri) && size == key.size && lastModified == key.lastModified &&
+                    contentHash == key.contentHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return uri.hashCode() * 31 + (int) (contentHash ^ size);
+        }
+    }
+
+    static File getFile(@NonNull Context context, @NonNull Uri uri) {
+        File dir = new File(context.getCacheDir(), CACHE_DIR);
+        return new File(dir, Integer.toHexString(uri.toString().hashCode()) + ".bin");
+    }
+
+    /**
+     * Reads all cached points in [startTime, endTime].
+     * @return false if there is no cache matching key and minAccuracy.
+     */
+    static boolean read(@NonNull File file, @NonNull Key key, int minAccuracy,
+                        long startTime, long endTime, @NonNull Visitor visitor) {
+        if (!file.exists())
+            return false;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                return false;
+            byte[] uriBytes = new byte[buf.getInt()];
+            buf.get(uriBytes);
+            if (!key.uri.equals(new String(uriBytes, Charset.forName("UTF-8"))) ||
+                    buf.getLong() != key.size || buf.getLong() != key.lastModified ||
+                    buf.getLong() != key.contentHash || buf.getInt() != minAccuracy)
+                return false;
+
+            int dataStart = buf.position();
+            buf.position(buf.limit() - 8);
+            long directoryOffset = buf.getLong();
+            if (directoryOffset < dataStart || directoryOffset > buf.limit() - 12)
+                return false;
+            buf.position((int) directoryOffset);
+            int blockCount = buf.getInt();
+            if (blockCount < 0 || (long) blockCount * DIRECTORY_ENTRY_SIZE != buf.remaining() - 8)
+                return false;
+
+            // Every block that's needed is checked before any point is handed to the visitor, so a
+            // damaged cache is either used completely or not at all.
+            int[] counts = new int[blockCount];
+            int[] offsets = new int[blockCount];
+            int needed = 0;
+            CRC32 crc = new CRC32();
+            byte[] scratch = new byte[0];
+            for (int i = 0; i < blockCount; i++) {
+                long minTime = buf.getLong();
+                long maxTime = buf.getLong();
+                int count = buf.getInt();
+                int offset = buf.getInt();
+                int length = buf.getInt();
+                int checksum = buf.getInt();
+                if (count <= 0 || count > BLOCK_SIZE || offset < dataStart || length < 0 ||
+                        (long) offset + length > directoryOffset)
+                    return false;
+                if (maxTime < startTime || minTime > endTime)
+                    continue;
+                // CRC32.update(ByteBuffer) needs API 26.
+                if (scratch.length < length)
+                    scratch = new byte[length];
+                ByteBuffer block = buf.duplicate();
+                block.position(offset);
+                block.get(scratch, 0, length);
+                crc.reset();
+                crc.update(scratch, 0, length);
+                if ((int) crc.getValue() != checksum)
+                    return false;
+                counts[needed] = count;
+                offsets[needed] = offset;
+                needed++;
+            }
+            long[] timestamps = new long[BLOCK_SIZE];
+            int[] lats = new int[BLOCK_SIZE];
+            int[] lngs = new int[BLOCK_SIZE];
+            for (int i = 0; i < needed; i++) {
+                ByteBuffer block = buf.duplicate();
+                block.position(offsets[i]);
+                decodeBlock(block, counts[i], timestamps, lats, lngs);
+                for (int j = 0; j < counts[i]; j++) {
+                    if (timestamps[j] >= startTime && timestamps[j] <= endTime)
+                        visitor.onLocation(timestamps[j], lats[j], lngs[j]);
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read " + file + ": " + e.toString());
+            return false;
+        }
+    }
+
+    private static void decodeBlock(ByteBuffer block, int count, long[] timestamps, int[] lats, int[] lngs) {
+        long timestamp = 0;
+        for (int j = 0; j < count; j++)
+            timestamps[j] = timestamp += zigzagDecode(readVarLong(block));
+        int lat = 0;
+        for (int j = 0; j < count; j++)
+            lats[j] = lat += (int) zigzagDecode(readVarLong(block));
+        int lng = 0;
+        for (int j = 0; j < count; j++)
+            lngs[j] = lng += (int) zigzagDecode(readVarLong(block));
+    }
+
+    private static long readVarLong(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long zigzagDecode(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Streams points into a new cache file. Nothing is visible to {@link #read} until {@link #commit()}.
+     */
+    static class Writer {
+        private final File mFile;
+        private final File mTempFile;
+        private final DataOutputStream mOut;
+        private final long[] mTimestamps = new long[BLOCK_SIZE];
+        private final int[] mLats = new int[BLOCK_SIZE];
+        private final int[] mLngs = new int[BLOCK_SIZE];
+        private int mCount = 0;
+        private final VarIntBuffer mBlock = new VarIntBuffer();
+        private final VarIntBuffer mDirectory = new VarIntBuffer();
+        private final CRC32 mCrc = new CRC32();
+        private int mBlockCount = 0;
+
+        private Writer(File file, Key key, int minAccuracy) throws IOException {
+            mFile = file;
+            mTempFile = new File(file.getPath() + ".tmp");
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create " + dir);
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile)));
+            byte[] uriBytes = key.uri.getBytes(Charset.forName("UTF-8"));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+            mOut.writeInt(uriBytes.length);
+            mOut.write(uriBytes);
+            mOut.writeLong(key.size);
+            mOut.writeLong(key.lastModified);
+            mOut.writeLong(key.contentHash);
+            mOut.writeInt(minAccuracy);
+        }
+
+        /**
+         * @return a writer, or null if the cache file can't be created.
+         */
+        static Writer open(@NonNull File file, @NonNull Key key, int minAccuracy) {
+            try {
+                return new Writer(file, key, minAccuracy);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to create " + file + ": " + e.toString());
+                return null;
+            }
+        }
+
+        void add(long timestampMs, int latitudeE7, int longitudeE7) throws IOException {
+            mTimestamps[mCount] = timestampMs;
+            mLats[mCount] = latitudeE7;
+            mLngs[mCount] = longitudeE7;
+            if (++mCount == BLOCK_SIZE)
+                flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            if (mCount == 0)
+                return;
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            long prevTime = 0;
+            mBlock.reset();
+            for (int i = 0; i < mCount; i++) {
+                minTime = Math.min(minTime, mTimestamps[i]);
+                maxTime = Math.max(maxTime, mTimestamps[i]);
+                mBlock.writeVarLong(zigzagEncode(mTimestamps[i] - prevTime));
+                prevTime = mTimestamps[i];
+            }
+            int prev = 0;
+            for (int i = 0; i < mCount; i++) {
+                mBlock.writeVarLong(zigzagEncode(mLats[i] - prev));
+                prev = mLats[i];
+            }
+            prev = 0;
+            for (int i = 0; i < mCount; i++) {
+                mBlock.writeVarLong(zigzagEncode(mLngs[i] - prev));
+                prev = mLngs[i];
+            }
+            mCrc.reset();
+            mCrc.update(mBlock.mBytes, 0, mBlock.mSize);
+            mDirectory.writeLong(minTime);
+            mDirectory.writeLong(maxTime);
+            mDirectory.writeInt(mCount);
+            mDirectory.writeInt(mOut.size());
+            mDirectory.writeInt(mBlock.mSize);
+            mDirectory.writeInt((int) mCrc.getValue());
+            mOut.write(mBlock.mBytes, 0, mBlock.mSize);
+            mBlockCount++;
+            mCount = 0;
+        }
+
+        void commit() throws IOException {
+            flushBlock();
+            long directoryOffset = mOut.size();
+            mOut.writeInt(mBlockCount);
+            mOut.write(mDirectory.mBytes, 0, mDirectory.mSize);
+            mOut.writeLong(directoryOffset);
+            mOut.close();
+            if (!mTempFile.renameTo(mFile)) {
+                abort();
+                throw new IOException("Failed to rename " + mTempFile);
+            }
+        }
+
+        void abort() {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            //noinspection ResultOfMethodCallIgnored
+            mTempFile.delete();
+        }
+
+        private static long zigzagEncode(long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+    }
+
+    /**
+     * Growable byte array, saves going through a stream for every varint.
+     */
+    private static class VarIntBuffer {
+        private byte[] mBytes = new byte[BLOCK_SIZE * 8];
+        private int mSize = 0;
+
+        void reset() {
+            mSize = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mSize + extra > mBytes.length) {
+                byte[] bytes = new byte[Math.max(mBytes.length * 2, mSize + extra)];
+                System.arraycopy(mBytes, 0, bytes, 0, mSize);
+                mBytes = bytes;
+            }
+        }
+
+        void writeVarLong(long v) {
+            ensureCapacity(10);
+            while ((v & ~0x7fL) != 0) {
+                mBytes[mSize++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            mBytes[mSize++] = (byte) v;
+        }
+
+        void writeInt(int v) {
+            ensureCapacity(4);
+            mBytes[mSize++] = (byte) (v >>> 24);
+            mBytes[mSize++] = (byte) (v >>> 16);
+            mBytes[mSize++] = (byte) (v >>> 8);
+            mBytes[mSize++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Sparse index of a "Location History.json", mapping the timestamp of every
+ * {@link #INTERVAL}th record to its byte offset. Only usable for seeking if the records are sorted
+ * by timestamp (Takeout files usually are, but older exports were in reverse order).
+ */
+class LocationHistoryIndex {
+    private static final String TAG = "LocationHistoryIndex";
+    private static final int MAGIC = 0x474c4849; // "GLHI"
+    private static final int VERSION = 2;
+    private static final String INDEX_DIR = "location_history";
+    static final int INTERVAL = 1024;
+
+    private long[] mTimestamps = new long[256];
+    private long[] mOffsets = new long[256];
+    private int mCount = 0;
+    private boolean mSorted = true;
+    private long mLastTimestamp = Long.MIN_VALUE;
+
+    static File getFile(@NonNull Context context, @NonNull Uri uri) {
+        // Kept in files rather than cache, it's tiny and is the fallback when the cache is evicted.
+        File dir = new File(context.getFilesDir(), INDEX_DIR);
+        return new File(dir, Integer.toHexString(uri.toString().hashCode()) + ".idx");
+    }
+
+    /**
+     * Called with the timestamp of every record, in file order, to track whether the file is sorted.
+     */
+    void onTimestamp(long timestamp) {
+        if (timestamp < mLastTimestamp)
+            mSorted = false;
+        mLastTimestamp = timestamp;
+    }
+
+    void add(long timestamp, long offset) {
+        if (mCount == mTimestamps.length) {
+            long[] timestamps = new long[mCount * 2];
+            long[] offsets = new long[mCount * 2];
+            System.arraycopy(mTimestamps, 0, timestamps, 0, mCount);
+            System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+            mTimestamps = timestamps;
+            mOffsets = offsets;
+        }
+        mTimestamps[mCount] = timestamp;
+        mOffsets[mCount] = offset;
+        mCount++;
+    }
+
+    boolean isSorted() {
+        return mSorted;
+    }
+
+    /**
+     * @return offset of a record at or before the first record with a timestamp >= startTime.
+     */
+    long seekOffset(long startTime) {
+        int low = 0;
+        int high = mCount - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTimestamps[mid] < startTime) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mOffsets[found];
+    }
+
+    /**
+     * @return offset of an indexed record after the last record with a timestamp <= endTime, or -1
+     * if there is none (i.e. reading has to continue to the end of the file).
+     */
+    long endOffset(long endTime) {
+        int low = 0;
+        int high = mCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTimestamps[mid] > endTime) {
+                found = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return found >= 0 ? mOffsets[found] : -1;
+    }
+
+    /**
+     * @return number of bytes to read for the records in [startTime, endTime].
+     */
+    long rangeSize(long startTime, long endTime, long fileSize) {
+        long end = endOffset(endTime);
+        return (end >= 0 ? end : fileSize) - seekOffset(startTime);
+    }
+
+    /**
+     * @return the index, or null if there is no (sorted) index matching key.
+     */
+    static LocationHistoryIndex read(@NonNull File file, @NonNull LocationHistoryCache.Key key) {
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.uri.equals(in.readUTF()) ||
+                    in.readLong() != key.size || in.readLong() != key.lastModified ||
+                    in.readLong() != key.contentHash)
+                return null;
+            LocationHistoryIndex index = new LocationHistoryIndex();
+            int count = in.readInt();
+            if (count == 0)
+                return null;
+            if (count < 0 || count > key.size / INTERVAL + 1)
+                return null;
+            index.mTimestamps = new long[count];
+            index.mOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                index.mTimestamps[i] = in.readLong();
+                index.mOffsets[i] = in.readLong();
+                // Seeking relies on both being increasing.
+                if (index.mOffsets[i] < 0 || index.mOffsets[i] >= key.size || (i > 0 &&
+                        (index.mOffsets[i] <= index.mOffsets[i - 1] || index.mTimestamps[i] < index.mTimestamps[i - 1])))
+                    return null;
+            }
+            index.mCount = count;
+            return index;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index, unsorted files aren't written since the index can't be used to seek.
+     */
+    void write(@NonNull File file, @NonNull LocationHistoryCache.Key key) {
+        if (!mSorted || mCount == 0) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return;
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+            return;
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key.uri);
+            out.writeLong(key.size);
+            out.writeLong(key.lastModified);
+            out.writeLong(key.contentHash);
+            out.writeInt(mCount);
+            for (int i = 0; i < mCount; i++) {
+                out.writeLong(mTimestamps[i]);
+                out.writeLong(mOffsets[i]);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file + ": " + e.toString());
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            Log.w(TAG, "Failed to rename " + tempFile);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Special purpose scanner for the "locations" array of a Google Takeout "Location History.json".
+ *
+ * Works directly on the raw bytes rather than decoding to chars and tokens like JsonReader does.
+ * Only timestampMs, latitudeE7, longitudeE7 and accuracy are decoded (in any order), everything
+ * else in a record is skipped by bracket counting. No objects are allocated per record.
+ */
+class LocationHistoryScanner {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_KEY_LENGTH = 32;
+    private static final byte[] LOCATIONS = key("locations");
+    private static final byte[] TIMESTAMP_MS = key("timestampMs");
+    private static final byte[] LATITUDE_E7 = key("latitudeE7");
+    private static final byte[] LONGITUDE_E7 = key("longitudeE7");
+    private static final byte[] ACCURACY = key("accuracy");
+    private static final int HAS_TIMESTAMP = 1;
+    private static final int HAS_LATITUDE = 2;
+    private static final int HAS_LONGITUDE = 4;
+    private static final int HAS_LOCATION = HAS_TIMESTAMP | HAS_LATITUDE | HAS_LONGITUDE;
+
+    interface Listener {
+        /**
+         * @return false to stop scanning.
+         */
+        boolean onLocation(long timestampMs, int latitudeE7, int longitudeE7, int accuracy) throws IOException;
+    }
+
+    private final ReadableByteChannel mChannel;
+    private final FileChannel mFileChannel;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer mByteBuffer = ByteBuffer.wrap(mBuffer);
+    private final byte[] mKey = new byte[MAX_KEY_LENGTH];
+    private int mKeyLength;
+    private int mPos = 0;
+    private int mLimit = 0;
+    private long mBufferOffset = 0;
+    private long mRecordOffset = -1;
+    private long mTimestamp;
+    private int mLatitude;
+    private int mLongitude;
+    private int mAccuracy;
+
+    /**
+     * FileChannels are read with absolute positions (from offset 0), so several scanners can share
+     * one channel and {@link #seek} is supported.
+     */
+    LocationHistoryScanner(@NonNull ReadableByteChannel channel) {
+        mChannel = channel;
+        mFileChannel = channel instanceof FileChannel ? (FileChannel) channel : null;
+    }
+
+    /**
+     * @return offset of the next byte to be consumed.
+     */
+    long position() {
+        return mBufferOffset + mPos;
+    }
+
+    /**
+     * @return offset of the record most recently passed to the listener.
+     */
+    long recordOffset() {
+        return mRecordOffset;
+    }
+
+    /**
+     * Scans the whole document, calling the listener for every record in the "locations" array.
+     */
+    void scan(@NonNull Listener listener) throws IOException {
+        expect('{');
+        while (true) {
+            if (skipWhitespaceAndPeek() == '}')
+                return;
+            readKey();
+            expect(':');
+            if (keyEquals(LOCATIONS)) {
+                scanLocations(listener);
+                return;
+            }
+            skipValue();
+            int c = nextAfterWhitespace();
+            if (c == '}')
+                return;
+            if (c != ',')
+                throw syntaxError("',' or '}'", c);
+        }
+    }
+
+    private void scanLocations(Listener listener) throws IOException {
+        expect('[');
+        if (skipWhitespaceAndPeek() == ']')
+            return;
+        scanRecords(Long.MAX_VALUE, listener);
+    }
+
+    /**
+     * Scans records of the "locations" array, starting at the current position which must be the
+     * start of a record. Stops at the end of the array or at the first record starting at or after
+     * endOffset.
+     */
+    void scanRecords(long endOffset, @NonNull Listener listener) throws IOException {
+        while (true) {
+            skipWhitespaceAndPeek();
+            mRecordOffset = position();
+            if (mRecordOffset >= endOffset)
+                return;
+            if (parseRecord() == HAS_LOCATION &&
+                    !listener.onLocation(mTimestamp, mLatitude, mLongitude, mAccuracy))
+                return;
+            int c = nextAfterWhitespace();
+            if (c == ']')
+                return;
+            if (c != ',')
+                throw syntaxError("',' or ']'", c);
+        }
+    }
+
+    /**
+     * Finds the first record of the "locations" array starting at or after offset, so the file can
+     * be split into chunks. A candidate '{' must follow ',' or '[', parse as an object holding a
+     * location and be followed by ',' or ']', which rules out the document itself and the nested
+     * objects of a record (e.g. activity).
+     * @return offset of the record, or -1 if there isn't one.
+     */
+    long findRecordStart(long offset) throws IOException {
+        int prev = nonWhitespaceBefore(offset);
+        long candidate = offset;
+        seek(candidate);
+        while (true) {
+            int c = peek();
+            if (c < 0)
+                return -1;
+            mPos++;
+            if (c != '{' || (prev != ',' && prev != '[')) {
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                    prev = c;
+                continue;
+            }
+            candidate = position() - 1;
+            seek(candidate);
+            try {
+                if (parseRecord() == HAS_LOCATION) {
+                    int after = nextAfterWhitespace();
+                    if (after == ',' || after == ']') {
+                        seek(candidate);
+                        return candidate;
+                    }
+                }
+            } catch (IOException e) {
+                // Not a record, keep looking.
+            }
+            prev = '{';
+            seek(candidate + 1);
+        }
+    }
+
+    private int nonWhitespaceBefore(long offset) throws IOException {
+        long start = offset;
+        while (start > 0) {
+            start = Math.max(0, start - 64);
+            seek(start);
+            int last = -1;
+            while (position() < offset) {
+                int c = next();
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                    last = c;
+            }
+            if (last >= 0)
+                return last;
+            offset = start;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves to an absolute offset, only supported if the channel is a FileChannel.
+     */
+    void seek(long offset) {
+        if (mFileChannel == null)
+            throw new UnsupportedOperationException("Channel is not seekable");
+        mBufferOffset = offset;
+        mPos = 0;
+        mLimit = 0;
+    }
+
+    /**
+     * Parses the record object at the current position into mTimestamp, mLatitude etc.
+     * @return the fields that were found.
+     */
+    private int parseRecord() throws IOException {
+        expect('{');
+        mTimestamp = 0;
+        mLatitude = 0;
+        mLongitude = 0;
+        // Missing accuracy shouldn't discard the point.
+        mAccuracy = 0;
+        int found = 0;
+        if (skipWhitespaceAndPeek() == '}') {
+            next();
+            return found;
+        }
+        while (true) {
+            readKey();
+            expect(':');
+            skipWhitespaceAndPeek();
+            if (keyEquals(TIMESTAMP_MS)) {
+                mTimestamp = readLong();
+                found |= HAS_TIMESTAMP;
+            } else if (keyEquals(LATITUDE_E7)) {
+                mLatitude = (int) readLong();
+                found |= HAS_LATITUDE;
+            } else if (keyEquals(LONGITUDE_E7)) {
+                mLongitude = (int) readLong();
+                found |= HAS_LONGITUDE;
+            } else if (keyEquals(ACCURACY)) {
+                mAccuracy = (int) readLong();
+            } else {
+                skipValue();
+            }
+            int c = nextAfterWhitespace();
+            if (c == '}')
+                return found;
+            if (c != ',')
+                throw syntaxError("',' or '}'", c);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        mBufferOffset += mLimit;
+        mPos = 0;
+        mLimit = 0;
+        mByteBuffer.clear();
+        int n;
+        do {
+            if (mFileChannel != null)
+                n = mFileChannel.read(mByteBuffer, mBufferOffset);
+            else
+                n = mChannel.read(mByteBuffer);
+        } while (n == 0);
+        if (n < 0)
+            return false;
+        mLimit = n;
+        return true;
+    }
+
+    private int peek() throws IOException {
+        if (mPos == mLimit && !fill())
+            return -1;
+        return mBuffer[mPos] & 0xff;
+    }
+
+    private int next() throws IOException {
+        if (mPos == mLimit && !fill())
+            throw new IOException("Unexpected end of input");
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    private int skipWhitespaceAndPeek() throws IOException {
+        while (true) {
+            byte[] buffer = mBuffer;
+            int pos = mPos;
+            int limit = mLimit;
+            while (pos < limit) {
+                byte c = buffer[pos];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    mPos = pos;
+                    return c & 0xff;
+                }
+                pos++;
+            }
+            mPos = pos;
+            if (!fill())
+                return -1;
+        }
+    }
+
+    private int nextAfterWhitespace() throws IOException {
+        skipWhitespaceAndPeek();
+        return next();
+    }
+
+    private void expect(int expected) throws IOException {
+        int c = nextAfterWhitespace();
+        if (c != expected)
+            throw syntaxError("'" + (char) expected + "'", c);
+    }
+
+    /**
+     * Reads a quoted key into mKey. Keys longer than MAX_KEY_LENGTH are consumed but won't match.
+     */
+    private void readKey() throws IOException {
+        expect('"');
+        mKeyLength = 0;
+        while (true) {
+            byte[] buffer = mBuffer;
+            int pos = mPos;
+            int limit = mLimit;
+            while (pos < limit) {
+                byte c = buffer[pos++];
+                if (c == '"') {
+                    mPos = pos;
+                    return;
+                }
+                if (c == '\\') {
+                    mPos = pos;
+                    c = (byte) next();
+                    pos = mPos;
+                    limit = mLimit;
+                }
+                if (mKeyLength < MAX_KEY_LENGTH)
+                    mKey[mKeyLength] = c;
+                mKeyLength++;
+            }
+            mPos = pos;
+            if (!fill())
+                throw new IOException("Unexpected end of input");
+        }
+    }
+
+    private boolean keyEquals(byte[] key) {
+        if (mKeyLength != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (mKey[i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads an integer value, which Takeout sometimes quotes (e.g. "timestampMs" : "1234").
+     */
+    private long readLong() throws IOException {
+        boolean quoted = peek() == '"';
+        if (quoted)
+            mPos++;
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            mPos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (true) {
+            byte[] buffer = mBuffer;
+            int pos = mPos;
+            int limit = mLimit;
+            while (pos < limit) {
+                int c = buffer[pos] - '0';
+                if (c < 0 || c > 9)
+                    break;
+                value = value * 10 + c;
+                digits++;
+                pos++;
+            }
+            mPos = pos;
+            if (pos < limit || !fill())
+                break;
+        }
+        if (digits == 0)
+            throw syntaxError("number", peek());
+        if (quoted)
+            expect('"');
+        return negative ? -value : value;
+    }
+
+    private void skipString() throws IOException {
+        // Opening quote already consumed.
+        boolean escaped = false;
+        while (true) {
+            byte[] buffer = mBuffer;
+            int pos = mPos;
+            int limit = mLimit;
+            while (pos < limit) {
+                byte c = buffer[pos++];
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    mPos = pos;
+                    return;
+                }
+            }
+            mPos = pos;
+            if (!fill())
+                throw new IOException("Unexpected end of input");
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = skipWhitespaceAndPeek();
+        if (c == '"') {
+            mPos++;
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (true) {
+                byte[] buffer = mBuffer;
+                int pos = mPos;
+                int limit = mLimit;
+                while (pos < limit) {
+                    byte b = buffer[pos++];
+                    if (b == '"') {
+                        mPos = pos;
+                        skipString();
+                        buffer = mBuffer;
+                        pos = mPos;
+                        limit = mLimit;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        if (--depth == 0) {
+                            mPos = pos;
+                            return;
+                        }
+                    }
+                }
+                mPos = pos;
+                if (!fill())
+                    throw new IOException("Unexpected end of input");
+            }
+        } else {
+            // Number or literal.
+            while (true) {
+                c = peek();
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' ||
+                        c == '\t' || c == -1)
+                    return;
+                mPos++;
+            }
+        }
+    }
+
+    private IOException syntaxError(String expected, int actual) {
+        String found = actual < 0 ? "end of input" : "'" + (char) actual + "'";
+        return new IOException("Expected " + expected + " but found " + found + " at offset " + position());
+    }
+
+    private static byte[] key(String key) {
+        byte[] bytes = new byte[key.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) key.charAt(i);
+        return bytes;
+    }
+}
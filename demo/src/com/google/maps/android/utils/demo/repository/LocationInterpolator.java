@@ -0,0 +1,89 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+import com.google.maps.android.utils.demo.model.LocationHistory;
+import com.google.maps.android.utils.demo.model.MediaItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Places media without a location of their own on the location history, by interpolating between
+ * the samples before and after each item was taken.
+ *
+ * The media is sorted by date and walked together with the history in a single pass, rather than
+ * searching the history for every item. Samples less than {@link #PLANAR_MAX_DEGREES} apart (nearly
+ * always, the history is dense) are interpolated linearly in latitude and longitude, which is
+ * within a few metres of the great circle. Further apart they're interpolated along the great
+ * circle.
+ */
+class LocationInterpolator {
+    private static final double PLANAR_MAX_DEGREES = 0.1;
+
+    private final long mMaxGapMs;
+
+    /**
+     * @param maxGapMs samples further apart than this aren't interpolated between, an item is then
+     *                 placed at the nearer sample if that's within maxGapMs, else not at all.
+     */
+    LocationInterpolator(long maxGapMs) {
+        mMaxGapMs = maxGapMs;
+    }
+
+    /**
+     * @return the items that could be placed, with their interpolated positions, sorted by date.
+     */
+    List<MediaItem> interpolate(@NonNull LocationHistory history, @NonNull List<MediaItem> items) {
+        List<MediaItem> sorted = new ArrayList<>(items);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.date, b.date));
+        List<MediaItem> placed = new ArrayList<>(sorted.size());
+        int size = history.size();
+        // Index of the first sample after the current item.
+        int next = 0;
+        for (MediaItem m : sorted) {
+            while (next < size && history.getTimestamp(next) <= m.date)
+                next++;
+            int floor = next - 1;
+            int ceiling = next < size ? next : -1;
+            long floorGap = floor >= 0 ? m.date - history.getTimestamp(floor) : Long.MAX_VALUE;
+            long ceilingGap = ceiling >= 0 ? history.getTimestamp(ceiling) - m.date : Long.MAX_VALUE;
+            LatLng position;
+            if (floorGap == 0) {
+                position = history.getLatLng(floor);
+            } else if (floor >= 0 && ceiling >= 0 && floorGap + ceilingGap <= mMaxGapMs) {
+                position = interpolate(history, floor, ceiling, (double) floorGap / (floorGap + ceilingGap));
+            } else if (Math.min(floorGap, ceilingGap) <= mMaxGapMs) {
+                position = history.getLatLng(floorGap <= ceilingGap ? floor : ceiling);
+            } else {
+                continue;
+            }
+            placed.add(new MediaItem(position, m.mediaPath, m.mId, m.date, m.dateAdded, m.dateModified,
+                    m.type));
+        }
+        return placed;
+    }
+
+    private static LatLng interpolate(LocationHistory history, int from, int to, double fraction) {
+        double fromLat = history.getLatitude(from);
+        double fromLng = history.getLongitude(from);
+        double dLat = history.getLatitude(to) - fromLat;
+        double dLng = history.getLongitude(to) - fromLng;
+        // The short way across the antimeridian.
+        if (dLng > 180)
+            dLng -= 360;
+        else if (dLng < -180)
+            dLng += 360;
+        if (Math.abs(dLat) > PLANAR_MAX_DEGREES || Math.abs(dLng) > PLANAR_MAX_DEGREES)
+            return SphericalUtil.interpolate(history.getLatLng(from), history.getLatLng(to), fraction);
+        double lng = fromLng + dLng * fraction;
+        if (lng >= 180)
+            lng -= 360;
+        else if (lng < -180)
+            lng += 360;
+        return new LatLng(fromLat + dLat * fraction, lng);
+    }
+}
@@ -0,0 +1,436 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LongSparseArray;
+
+import com.google.maps.android.utils.demo.model.MediaFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copy of the MediaStore rows of every image and video, kept across sessions. {@link #sync} only
+ * queries the rows added or modified since the last sync (by _ID and DATE_MODIFIED), and only
+ * lists the IDs to find deleted rows if the count doesn't match.
+ *
+ * Each sync is a new generation, {@link #changesSince} gives what changed after a generation, so
+ * each user of the index gets the changes since it last looked however many syncs there were.
+ * Generations and the removed IDs are saved with the index, the removed IDs only for the last
+ * {@link #MAX_REMOVED} removals.
+ */
+class MediaIndex {
+    private static final String TAG = "MediaIndex";
+    private static final int MAGIC = 0x474d4958; // "GMIX"
+    private static final int VERSION = 2;
+    private static final String INDEX_FILE = "media_index.bin";
+    private static final int PAGE_SIZE = 500;
+    // Removals older than these are forgotten, changes since before them are then unknown.
+    static final int MAX_REMOVED = 10000;
+    private static final String MEDIA_SELECTION = "(" + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + " OR " +
+            MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
+            MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO + ")";
+    private static final String[] PROJECTION = {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Images.Media.BUCKET_DISPLAY_NAME,
+            MediaStore.Images.Media.DATE_TAKEN,
+            MediaStore.Images.Media.DATE_ADDED,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.DATA,
+            MediaStore.Files.FileColumns.MEDIA_TYPE
+    };
+
+    static class Entry {
+        final long id;
+        final String bucket;
+        final String path;
+        // DATE_TAKEN in ms, or DATE_ADDED if there isn't one. -1 if neither is set.
+        final long date;
+        // DATE_ADDED, in seconds.
+        final long dateAdded;
+        final long dateModified;
+        final long size;
+        final int type;
+        // Generation of the sync that added or last changed the entry.
+        int generation = 0;
+
+        Entry(long id, String bucket, String path, long date, long dateAdded, long dateModified,
+              long size, int type) {
+            this.id = id;
+            this.bucket = bucket;
+            this.path = path;
+            this.date = date;
+            this.dateAdded = dateAdded;
+            this.dateModified = dateModified;
+            this.size = size;
+            this.type = type;
+        }
+
+        boolean sameAs(Entry e) {
+            return date == e.date && dateAdded == e.dateAdded && dateModified == e.dateModified &&
+                    size == e.size && type == e.type && bucket.equals(e.bucket) && path.equals(e.path);
+        }
+    }
+
+    /**
+     * Rows changed since a generation.
+     */
+    static class Delta {
+        // Added or modified.
+        final List<Entry> changed = new ArrayList<>();
+        final Set<Long> removedIds = new HashSet<>();
+
+        boolean isEmpty() {
+            return changed.isEmpty() && removedIds.isEmpty();
+        }
+    }
+
+    private final File mFile;
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+    // -1 until the first sync, which reads every row.
+    private long mMaxId = -1;
+    private long mMaxDateModified = 0;
+    private boolean mDirty = false;
+    private int mGeneration = 0;
+    // Generation each row was removed in, the last MAX_REMOVED removals.
+    private final LongSparseArray<Integer> mRemovedGenerations = new LongSparseArray<>();
+    // Changes since generations before this one may be missing removals.
+    private int mHistoryStart = 0;
+
+    private MediaIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads the index, starting with an empty one if it's missing or invalid.
+     */
+    static MediaIndex read(@NonNull Context context) {
+        return read(new File(context.getCacheDir(), INDEX_FILE));
+    }
+
+    static MediaIndex read(@NonNull File file) {
+        MediaIndex index = new MediaIndex(file);
+        if (!index.mFile.exists())
+            return index;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index.mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return index;
+            long maxId = in.readLong();
+            long maxDateModified = in.readLong();
+            int generation = in.readInt();
+            int historyStart = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readLong(), in.readInt());
+                entry.generation = in.readInt();
+                index.mEntries.append(entry.id, entry);
+            }
+            int removedCount = in.readInt();
+            for (int i = 0; i < removedCount; i++)
+                index.mRemovedGenerations.append(in.readLong(), in.readInt());
+            index.mMaxId = maxId;
+            index.mMaxDateModified = maxDateModified;
+            index.mGeneration = generation;
+            index.mHistoryStart = historyStart;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + index.mFile + ": " + e.toString());
+            index.mEntries.clear();
+            index.mRemovedGenerations.clear();
+        }
+        return index;
+    }
+
+    /**
+     * @return whether the index has been synced, if not it's empty.
+     */
+    synchronized boolean isSynced() {
+        return mMaxId >= 0;
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Brings the index up to date with MediaStore, as a new generation.
+     * @return false if MediaStore couldn't be queried, the index is then only partially updated.
+     */
+    synchronized boolean sync(@NonNull Context context) {
+        int generation = newGeneration();
+        int changed = 0;
+        int removed = 0;
+        String selection = MEDIA_SELECTION;
+        if (mMaxId >= 0) {
+            // Modification times are in seconds, so rows from the last synced second are queried
+            // again (and ignored if unchanged).
+            selection += " AND (" + MediaStore.Files.FileColumns._ID + ">" + mMaxId + " OR " +
+                    MediaStore.Files.FileColumns.DATE_MODIFIED + ">=" + mMaxDateModified + ")";
+        }
+        Uri external = MediaStore.Files.getContentUri("external");
+        long lastId = -1;
+        boolean lastPage = false;
+        // Only updated once every page is read, so a failed sync is picked up again next time.
+        long maxId = mMaxId;
+        long maxDateModified = mMaxDateModified;
+        try {
+            // Pages continue from the last _ID rather than using an OFFSET, so each is cheap.
+            while (!lastPage) {
+                String[] args = { String.valueOf(lastId) };
+                try (Cursor cur = MediaQuery.queryPage(context.getContentResolver(), external, PROJECTION,
+                        selection + " AND " + MediaStore.Files.FileColumns._ID + ">?", args,
+                        MediaStore.Files.FileColumns._ID, PAGE_SIZE)) {
+                    if (cur == null)
+                        return false;
+                    // Providers that ignore the limit return every row, the next page is then empty.
+                    lastPage = cur.getCount() < PAGE_SIZE;
+                    while (cur.moveToNext()) {
+                        Entry entry = readEntry(cur);
+                        lastId = entry.id;
+                        maxId = Math.max(maxId, entry.id);
+                        maxDateModified = Math.max(maxDateModified, entry.dateModified);
+                        if (update(entry, generation))
+                            changed++;
+                    }
+                }
+            }
+            mMaxId = Math.max(maxId, 0);
+            mMaxDateModified = maxDateModified;
+
+            // Rows can only be missing if the count differs.
+            int count;
+            try (Cursor cur = context.getContentResolver().query(external, new String[] { "COUNT(*)" },
+                    MEDIA_SELECTION, null, null)) {
+                if (cur == null || !cur.moveToFirst())
+                    return false;
+                count = cur.getInt(0);
+            }
+            if (count != mEntries.size()) {
+                LongSparseArray<Boolean> ids = new LongSparseArray<>(count);
+                try (Cursor cur = context.getContentResolver().query(external,
+                        new String[] { MediaStore.Files.FileColumns._ID }, MEDIA_SELECTION, null, null)) {
+                    if (cur == null)
+                        return false;
+                    while (cur.moveToNext())
+                        ids.put(cur.getLong(0), Boolean.TRUE);
+                }
+                for (int i = mEntries.size() - 1; i >= 0; i--) {
+                    long id = mEntries.keyAt(i);
+                    if (ids.get(id) == null) {
+                        remove(id, generation);
+                        removed++;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Media query failed: " + e.toString());
+            return false;
+        }
+        Log.i(TAG, mEntries.size() + " media, " + changed + " changed, " + removed + " removed");
+        return true;
+    }
+
+    /**
+     * Generations without changes aren't written, nothing outside the process can have seen them.
+     */
+    synchronized int newGeneration() {
+        return ++mGeneration;
+    }
+
+    /**
+     * Adds or replaces the entry, unless it's unchanged.
+     * @return whether it was added or replaced.
+     */
+    synchronized boolean update(@NonNull Entry entry, int generation) {
+        Entry existing = mEntries.get(entry.id);
+        if (existing != null && existing.sameAs(entry))
+            return false;
+        entry.generation = generation;
+        mEntries.put(entry.id, entry);
+        mRemovedGenerations.remove(entry.id);
+        mDirty = true;
+        return true;
+    }
+
+    synchronized void remove(long id, int generation) {
+        mEntries.remove(id);
+        mRemovedGenerations.put(id, generation);
+        mDirty = true;
+        if (mRemovedGenerations.size() <= MAX_REMOVED)
+            return;
+        // Forget the oldest removals, changes since before them are then unknown.
+        int oldest = Integer.MAX_VALUE;
+        for (int i = 0; i < mRemovedGenerations.size(); i++)
+            oldest = Math.min(oldest, mRemovedGenerations.valueAt(i));
+        for (int i = mRemovedGenerations.size() - 1; i >= 0; i--) {
+            if (mRemovedGenerations.valueAt(i) == oldest)
+                mRemovedGenerations.removeAt(i);
+        }
+        mHistoryStart = Math.max(mHistoryStart, oldest);
+    }
+
+    /**
+     * @return the rows added, modified or removed by the syncs after the generation, or null if
+     * that isn't known (the removals have been forgotten, or the generation isn't from this index).
+     */
+    synchronized Delta changesSince(int generation) {
+        if (generation < mHistoryStart || generation > mGeneration)
+            return null;
+        Delta delta = new Delta();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            if (entry.generation > generation)
+                delta.changed.add(entry);
+        }
+        for (int i = 0; i < mRemovedGenerations.size(); i++) {
+            if (mRemovedGenerations.valueAt(i) > generation)
+                delta.removedIds.add(mRemovedGenerations.keyAt(i));
+        }
+        return delta;
+    }
+
+    private static Entry readEntry(Cursor cur) {
+        long id = cur.getLong(cur.getColumnIndex(MediaStore.Files.FileColumns._ID));
+        String bucket = cur.getString(cur.getColumnIndex(MediaStore.Images.Media.BUCKET_DISPLAY_NAME));
+        String dateStr = cur.getString(cur.getColumnIndex(MediaStore.Images.Media.DATE_TAKEN));
+        int dateAddedColumn = cur.getColumnIndex(MediaStore.Images.Media.DATE_ADDED);
+        String dateAddedStr = cur.getString(dateAddedColumn);
+        String path = cur.getString(cur.getColumnIndex(MediaStore.Files.FileColumns.DATA));
+        long date = -1;
+        if (dateStr != null) {
+            date = Long.decode(dateStr);
+        } else if (dateAddedStr != null) {
+            // dateAdded is seconds rather than ms
+            date = Long.decode(dateAddedStr) * 1000L;
+        } else {
+            Log.i(TAG, "Media with no date info: " + bucket + " - " + path);
+        }
+        return new Entry(id, bucket != null ? bucket : "", path != null ? path : "", date,
+                cur.getLong(dateAddedColumn),
+                cur.getLong(cur.getColumnIndex(MediaStore.Files.FileColumns.DATE_MODIFIED)),
+                cur.getLong(cur.getColumnIndex(MediaStore.Files.FileColumns.SIZE)),
+                cur.getInt(cur.getColumnIndex(MediaStore.Files.FileColumns.MEDIA_TYPE)));
+    }
+
+    /**
+     * @param folders bucket names, or empty for all media.
+     * @return whether the entry is in the folders, with a date added in [startTime, endTime] (ms).
+     */
+    static boolean matches(@NonNull Entry entry, @NonNull Set<String> folders, long startTime, long endTime) {
+        // Date added is in seconds rather than milliseconds
+        return entry.date >= 0 && entry.dateAdded >= startTime / 1000 && entry.dateAdded <= endTime / 1000 &&
+                (folders.isEmpty() || folders.contains(entry.bucket));
+    }
+
+    /**
+     * @return the matching entries, newest first.
+     */
+    synchronized List<Entry> query(@NonNull Set<String> folders, long startTime, long endTime) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            if (matches(entry, folders, startTime, endTime))
+                entries.add(entry);
+        }
+        Collections.sort(entries, (a, b) -> a.dateAdded != b.dateAdded ?
+                Long.compare(b.dateAdded, a.dateAdded) : Long.compare(b.id, a.id));
+        return entries;
+    }
+
+    /**
+     * @param locationCache used to count the media with a location.
+     * @return every bucket, sorted by name.
+     */
+    synchronized List<MediaFolder> getFolders(@NonNull MediaLocationCache locationCache) {
+        // Media count, scanned count, geotagged count.
+        Map<String, int[]> counts = new HashMap<>();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            // TODO: Dunno where these "IMG_" buckets are coming from, just ignore for now..
+            if (entry.bucket.isEmpty() || entry.bucket.startsWith("IMG_"))
+                continue;
+            int[] count = counts.get(entry.bucket);
+            if (count == null) {
+                count = new int[3];
+                counts.put(entry.bucket, count);
+            }
+            count[0]++;
+            float[] latLong = locationCache.get(entry.id, entry.dateModified, entry.size);
+            if (latLong != null) {
+                count[1]++;
+                if (latLong != MediaLocationCache.NO_LOCATION)
+                    count[2]++;
+            }
+        }
+        List<MediaFolder> folders = new ArrayList<>();
+        for (Map.Entry<String, int[]> count : counts.entrySet())
+            folders.add(new MediaFolder(count.getKey(), count.getValue()[0], count.getValue()[1],
+                    count.getValue()[2]));
+        Collections.sort(folders, (a, b) -> a.name.compareTo(b.name));
+        return folders;
+    }
+
+    /**
+     * Writes the index if anything changed.
+     */
+    synchronized void write() {
+        if (!mDirty)
+            return;
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mMaxId);
+            out.writeLong(mMaxDateModified);
+            out.writeInt(mGeneration);
+            out.writeInt(mHistoryStart);
+            out.writeInt(mEntries.size());
+            for (int i = 0; i < mEntries.size(); i++) {
+                Entry entry = mEntries.valueAt(i);
+                out.writeLong(entry.id);
+                out.writeUTF(entry.bucket);
+                out.writeUTF(entry.path);
+                out.writeLong(entry.date);
+                out.writeLong(entry.dateAdded);
+                out.writeLong(entry.dateModified);
+                out.writeLong(entry.size);
+                out.writeInt(entry.type);
+                out.writeInt(entry.generation);
+            }
+            out.writeInt(mRemovedGenerations.size());
+            for (int i = 0; i < mRemovedGenerations.size(); i++) {
+                out.writeLong(mRemovedGenerations.keyAt(i));
+                out.writeInt(mRemovedGenerations.valueAt(i));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile + ": " + e.toString());
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        if (tmpFile.renameTo(mFile))
+            mDirty = false;
+        else
+            Log.w(TAG, "Failed to rename " + tmpFile);
+    }
+}
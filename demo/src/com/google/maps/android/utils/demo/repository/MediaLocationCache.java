@@ -0,0 +1,131 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Locations extracted from media files (or that a file has none), keyed by MediaStore _ID and
+ * only valid while the file's DATE_MODIFIED and SIZE are unchanged. Saves opening every file
+ * again on each load.
+ */
+class MediaLocationCache {
+    private static final String TAG = "MediaLocationCache";
+    private static final int MAGIC = 0x474d4c43; // "GMLC"
+    private static final int VERSION = 1;
+    private static final String CACHE_FILE = "media_locations.bin";
+    /** Returned by {@link #get} for files known to have no location. */
+    static final float[] NO_LOCATION = new float[0];
+
+    private static class Entry {
+        final long dateModified;
+        final long size;
+        final float[] latLong;
+
+        Entry(long dateModified, long size, float[] latLong) {
+            this.dateModified = dateModified;
+            this.size = size;
+            this.latLong = latLong;
+        }
+    }
+
+    private final File mFile;
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+    private boolean mDirty = false;
+
+    private MediaLocationCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads the cache, starting with an empty one if it's missing or invalid.
+     */
+    static MediaLocationCache read(@NonNull Context context) {
+        MediaLocationCache cache = new MediaLocationCache(new File(context.getCacheDir(), CACHE_FILE));
+        if (!cache.mFile.exists())
+            return cache;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache.mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return cache;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long dateModified = in.readLong();
+                long size = in.readLong();
+                float[] latLong = NO_LOCATION;
+                if (in.readBoolean())
+                    latLong = new float[] { in.readFloat(), in.readFloat() };
+                cache.mEntries.append(id, new Entry(dateModified, size, latLong));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + cache.mFile + ": " + e.toString());
+            cache.mEntries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * @return {latitude, longitude}, {@link #NO_LOCATION}, or null if the file isn't cached or
+     * has changed.
+     */
+    synchronized float[] get(long id, long dateModified, long size) {
+        Entry entry = mEntries.get(id);
+        if (entry == null || entry.dateModified != dateModified || entry.size != size)
+            return null;
+        return entry.latLong;
+    }
+
+    /**
+     * @param latLong {latitude, longitude}, or null if the file has no location.
+     */
+    synchronized void put(long id, long dateModified, long size, float[] latLong) {
+        mEntries.put(id, new Entry(dateModified, size,
+                latLong != null ? new float[] { latLong[0], latLong[1] } : NO_LOCATION));
+        mDirty = true;
+    }
+
+    /**
+     * Writes the cache if anything was added.
+     */
+    synchronized void write() {
+        if (!mDirty)
+            return;
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (int i = 0; i < mEntries.size(); i++) {
+                Entry entry = mEntries.valueAt(i);
+                out.writeLong(mEntries.keyAt(i));
+                out.writeLong(entry.dateModified);
+                out.writeLong(entry.size);
+                out.writeBoolean(entry.latLong != NO_LOCATION);
+                if (entry.latLong != NO_LOCATION) {
+                    out.writeFloat(entry.latLong[0]);
+                    out.writeFloat(entry.latLong[1]);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile + ": " + e.toString());
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        if (tmpFile.renameTo(mFile))
+            mDirty = false;
+        else
+            Log.w(TAG, "Failed to rename " + tmpFile);
+    }
+}
@@ -0,0 +1,45 @@
+package com.google.maps.android.utils.demo.repository;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * MediaStore queries limited to a page of rows.
+ */
+class MediaQuery {
+    private MediaQuery() {
+    }
+
+    /**
+     * @return the first limit rows matching the selection, in sortOrder.
+     */
+    static Cursor queryPage(@NonNull ContentResolver resolver, @NonNull Uri uri, String[] projection,
+                            String selection, String[] selectionArgs, @NonNull String sortOrder, int limit) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return queryPageArgs(resolver, uri, projection, selection, selectionArgs, sortOrder, limit);
+        // Older providers pass the sort order straight to SQLite.
+        return resolver.query(uri, projection, selection, selectionArgs, sortOrder + " LIMIT " + limit);
+    }
+
+    /**
+     * Android 11 rejects a LIMIT in the sort order, the limit is a query argument instead. Providers
+     * before Android 11 may ignore it and return every row, callers continue from the last row they
+     * got rather than counting on pages of exactly limit rows.
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    private static Cursor queryPageArgs(ContentResolver resolver, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs, String sortOrder, int limit) {
+        Bundle args = new Bundle();
+        args.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        args.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+        args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+        args.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+        return resolver.query(uri, projection, args, null);
+    }
+}
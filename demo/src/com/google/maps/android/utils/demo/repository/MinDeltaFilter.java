@@ -0,0 +1,63 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+/**
+ * Drops samples that are too close (in distance or time) to their neighbours to add anything,
+ * that is samples that interpolating between the kept samples puts within maxError of where they
+ * were.
+ *
+ * Works as an opening window from the last kept sample, limited to {@link #MAX_WINDOW} samples so
+ * it stays linear.
+ */
+public class MinDeltaFilter extends LocationFilter {
+    private static final int MAX_WINDOW = 64;
+    private final double mMaxErrorSq;
+
+    public MinDeltaFilter(double maxErrorMetres) {
+        mMaxErrorSq = maxErrorMetres * maxErrorMetres;
+    }
+
+    @Override
+    public LocationHistory apply(@NonNull LocationHistory history) {
+        int size = history.size();
+        if (size < 3)
+            return history;
+        LocationHistory.Builder builder = new LocationHistory.Builder(size / 4);
+        int anchor = 0;
+        builder.add(history.getTimestamp(0), history.getLatitudeE7(0), history.getLongitudeE7(0));
+        for (int end = 2; end < size; end++) {
+            if (end - anchor > MAX_WINDOW || !withinError(history, anchor, end)) {
+                anchor = end - 1;
+                builder.add(history.getTimestamp(anchor), history.getLatitudeE7(anchor),
+                        history.getLongitudeE7(anchor));
+            }
+        }
+        builder.add(history.getTimestamp(size - 1), history.getLatitudeE7(size - 1),
+                history.getLongitudeE7(size - 1));
+        return builder.size() == size ? history : builder.build();
+    }
+
+    /**
+     * @return whether every sample between anchor and end is within maxError of its position
+     * interpolated (by time) between them.
+     */
+    private boolean withinError(LocationHistory history, int anchor, int end) {
+        long startTime = history.getTimestamp(anchor);
+        long duration = history.getTimestamp(end) - startTime;
+        int startLat = history.getLatitudeE7(anchor);
+        int startLng = history.getLongitudeE7(anchor);
+        long deltaLat = (long) history.getLatitudeE7(end) - startLat;
+        long deltaLng = (long) history.getLongitudeE7(end) - startLng;
+        for (int i = anchor + 1; i < end; i++) {
+            double fraction = duration > 0 ? (double) (history.getTimestamp(i) - startTime) / duration : 0.5;
+            int lat = startLat + (int) Math.round(deltaLat * fraction);
+            int lng = startLng + (int) Math.round(deltaLng * fraction);
+            if (distanceSq(lat, lng, history.getLatitudeE7(i), history.getLongitudeE7(i)) > mMaxErrorSq)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,281 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the ISO 6709 location (e.g. "+49.2470+006.8340/") of an MP4/MOV video, from either the
+ * "moov/udta/\251xyz" box (Android, older iPhones) or the "com.apple.quicktime.location.ISO6709"
+ * QuickTime metadata key. Only box headers are read on the way to "moov", the media data and
+ * sample tables are skipped with positioned reads.
+ *
+ * Thread safe, counts the files read, bytes read and time taken for {@link #getStats}.
+ */
+class Mp4LocationReader {
+    private static final int TYPE_MOOV = 0x6d6f6f76; // "moov"
+    private static final int TYPE_UDTA = 0x75647461; // "udta"
+    private static final int TYPE_META = 0x6d657461; // "meta"
+    private static final int TYPE_HDLR = 0x68646c72; // "hdlr"
+    private static final int TYPE_KEYS = 0x6b657973; // "keys"
+    private static final int TYPE_ILST = 0x696c7374; // "ilst"
+    private static final int TYPE_DATA = 0x64617461; // "data"
+    private static final int TYPE_XYZ = 0xa978797a; // "\251xyz"
+    private static final String LOCATION_KEY = "com.apple.quicktime.location.ISO6709";
+    // Files have a handful of top level boxes, give up on anything that doesn't look like one.
+    private static final int MAX_BOXES = 64;
+    // udta and meta only hold small metadata, larger ones aren't read.
+    private static final int MAX_METADATA_SIZE = 1024 * 1024;
+
+    private final AtomicLong mFiles = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mNanos = new AtomicLong();
+
+    /**
+     * @return {latitude, longitude}, or null if the file has no (valid) location.
+     */
+    float[] read(@NonNull String path) throws IOException {
+        long start = System.nanoTime();
+        long[] bytesRead = {0};
+        try (FileInputStream stream = new FileInputStream(path);
+             FileChannel channel = stream.getChannel()) {
+            String location = readLocation(channel, bytesRead);
+            return location != null ? parseIso6709(location) : null;
+        } catch (IndexOutOfBoundsException e) {
+            // Box sizes that don't match their contents.
+            return null;
+        } finally {
+            mFiles.incrementAndGet();
+            mBytesRead.addAndGet(bytesRead[0]);
+            mNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return e.g. "12 files, 3 KB read, 0.20 ms per file".
+     */
+    String getStats() {
+        long files = mFiles.get();
+        return files + " files, " + mBytesRead.get() / 1024 + " KB read, " +
+                String.format(Locale.US, "%.2f", files > 0 ? mNanos.get() / 1e6 / files : 0) + " ms per file";
+    }
+
+    private static String readLocation(FileChannel channel, long[] bytesRead) throws IOException {
+        long fileSize = channel.size();
+        long[] moov = findBox(channel, 0, fileSize, TYPE_MOOV, bytesRead);
+        if (moov == null)
+            return null;
+        long[] udta = findBox(channel, moov[0], moov[1], TYPE_UDTA, bytesRead);
+        if (udta != null) {
+            ByteBuffer buf = readBox(channel, udta, bytesRead);
+            if (buf != null) {
+                String location = readUserData(buf);
+                if (location != null)
+                    return location;
+            }
+        }
+        long[] meta = findBox(channel, moov[0], moov[1], TYPE_META, bytesRead);
+        if (meta != null) {
+            ByteBuffer buf = readBox(channel, meta, bytesRead);
+            if (buf != null)
+                return readMetadata(buf, 0, buf.limit());
+        }
+        return null;
+    }
+
+    /**
+     * Walks the boxes in [start, end) with positioned header reads.
+     * @return {content start, content end} of the first box of the type, or null.
+     */
+    private static long[] findBox(FileChannel channel, long start, long end, int type, long[] bytesRead)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = start;
+        for (int i = 0; i < MAX_BOXES && position + 8 <= end; i++) {
+            read(channel, header, position, (int) Math.min(16, end - position), bytesRead);
+            long size = header.getInt(0) & 0xffffffffL;
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.limit() < 16)
+                    return null;
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                // Extends to the end of the file.
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end)
+                return null;
+            if (header.getInt(4) == type)
+                return new long[] { position + headerSize, position + size };
+            position += size;
+        }
+        return null;
+    }
+
+    private static ByteBuffer readBox(FileChannel channel, long[] box, long[] bytesRead) throws IOException {
+        long size = box[1] - box[0];
+        if (size > MAX_METADATA_SIZE)
+            return null;
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        read(channel, buf, box[0], (int) size, bytesRead);
+        return buf;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buf, long position, int length,
+                             long[] bytesRead) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0)
+                throw new EOFException();
+            bytesRead[0] += read;
+        }
+    }
+
+    /**
+     * @return {content start, content end} of the first child box of the type in [start, end), or
+     * null.
+     */
+    private static int[] findBox(ByteBuffer buf, int start, int end, int type) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buf.getInt(position) & 0xffffffffL;
+            if (size < 8 || position + size > end)
+                return null;
+            if (buf.getInt(position + 4) == type)
+                return new int[] { position + 8, position + (int) size };
+            position += size;
+        }
+        return null;
+    }
+
+    /**
+     * QuickTime user data, "\251xyz" holds a 16 bit string length, 16 bit language code and the string.
+     */
+    private static String readUserData(ByteBuffer udta) {
+        int[] xyz = findBox(udta, 0, udta.limit(), TYPE_XYZ);
+        if (xyz != null && xyz[1] - xyz[0] >= 4) {
+            int length = Math.min(udta.getShort(xyz[0]) & 0xffff, xyz[1] - xyz[0] - 4);
+            return readString(udta, xyz[0] + 4, length);
+        }
+        int[] meta = findBox(udta, 0, udta.limit(), TYPE_META);
+        return meta != null ? readMetadata(udta, meta[0], meta[1]) : null;
+    }
+
+    /**
+     * QuickTime metadata, "keys" lists the key names and "ilst" holds an item per key, with the
+     * 1-based key index as the item box type.
+     */
+    private static String readMetadata(ByteBuffer buf, int start, int end) {
+        // ISO "meta" is a full box (with a version and flags), QuickTime's isn't.
+        if (end - start >= 8 && buf.getInt(start + 4) != TYPE_HDLR)
+            start += 4;
+        int[] keys = findBox(buf, start, end, TYPE_KEYS);
+        int[] ilst = findBox(buf, start, end, TYPE_ILST);
+        if (keys == null || ilst == null || keys[1] - keys[0] < 8)
+            return null;
+        int count = buf.getInt(keys[0] + 4);
+        int position = keys[0] + 8;
+        int keyIndex = -1;
+        for (int i = 1; i <= count && position + 8 <= keys[1]; i++) {
+            int size = buf.getInt(position);
+            if (size < 8 || position + size > keys[1])
+                return null;
+            if (LOCATION_KEY.equals(readString(buf, position + 8, size - 8))) {
+                keyIndex = i;
+                break;
+            }
+            position += size;
+        }
+        if (keyIndex < 0)
+            return null;
+        int[] item = findBox(buf, ilst[0], ilst[1], keyIndex);
+        if (item == null)
+            return null;
+        // Value type (1 is UTF-8) and locale, then the value.
+        int[] data = findBox(buf, item[0], item[1], TYPE_DATA);
+        if (data == null || data[1] - data[0] < 8 || buf.getInt(data[0]) != 1)
+            return null;
+        return readString(buf, data[0] + 8, data[1] - data[0] - 8);
+    }
+
+    private static String readString(ByteBuffer buf, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buf.get(offset + i);
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Parses the latitude and longitude of an ISO 6709 string, in degrees ("+DD.D+DDD.D"), degrees
+     * and minutes ("+DDMM.M+DDDMM.M") or degrees, minutes and seconds ("+DDMMSS.S+DDDMMSS.S").
+     * @return {latitude, longitude}, or null if it's not valid.
+     */
+    static float[] parseIso6709(@NonNull String location) {
+        int[] end = {0};
+        double latitude = parseCoordinate(location, 0, 2, end);
+        if (Double.isNaN(latitude) || Math.abs(latitude) > 90)
+            return null;
+        double longitude = parseCoordinate(location, end[0], 3, end);
+        if (Double.isNaN(longitude) || Math.abs(longitude) > 180)
+            return null;
+        return new float[] { (float) latitude, (float) longitude };
+    }
+
+    /**
+     * @param degreeDigits number of digits of the degrees, 2 for latitude and 3 for longitude.
+     * @param end set to the end of the coordinate.
+     * @return degrees, or NaN.
+     */
+    private static double parseCoordinate(String s, int start, int degreeDigits, int[] end) {
+        if (start >= s.length())
+            return Double.NaN;
+        char sign = s.charAt(start);
+        if (sign != '+' && sign != '-')
+            return Double.NaN;
+        int digitsEnd = start + 1;
+        while (digitsEnd < s.length() && Character.isDigit(s.charAt(digitsEnd)))
+            digitsEnd++;
+        int fractionEnd = digitsEnd;
+        if (fractionEnd < s.length() && s.charAt(fractionEnd) == '.') {
+            fractionEnd++;
+            while (fractionEnd < s.length() && Character.isDigit(s.charAt(fractionEnd)))
+                fractionEnd++;
+        }
+        int digits = digitsEnd - start - 1;
+        // Extra pairs of integer digits are minutes then seconds.
+        int pairs = (digits - degreeDigits) / 2;
+        if (digits < degreeDigits || (digits - degreeDigits) % 2 != 0 || pairs > 2)
+            return Double.NaN;
+        double value;
+        try {
+            value = Double.parseDouble(s.substring(start + 1, fractionEnd));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+        double degrees = 0;
+        double divisor = 1;
+        // Splits e.g. 4914.82 into 49, 14.82.
+        double scale = Math.pow(100, pairs);
+        for (int i = 0; i <= pairs; i++) {
+            double part = i < pairs ? Math.floor(value / scale) : value;
+            if (i > 0 && part >= 60)
+                return Double.NaN;
+            degrees += part / divisor;
+            value -= part * scale;
+            scale /= 100;
+            divisor *= 60;
+        }
+        end[0] = fractionEnd;
+        return sign == '-' ? -degrees : degrees;
+    }
+}
@@ -0,0 +1,163 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a "Location History.json" on several threads.
+ *
+ * The file is split into byte ranges, each range is realigned to the first record that starts in
+ * it and scanned on its own {@link LocationHistoryScanner}. The records of each range are buffered
+ * and handed to the listener on the calling thread in file order, so the listener sees exactly the
+ * same sequence as with a single scanner.
+ */
+class ParallelLocationHistoryScanner {
+    static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final FileChannel mChannel;
+    private final int mThreadCount;
+    private volatile boolean mCancelled = false;
+    private long mPosition = 0;
+    private LocationHistoryIndex mIndex;
+
+    ParallelLocationHistoryScanner(@NonNull FileChannel channel, int threadCount) {
+        mChannel = channel;
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Builds a sparse index of the file while scanning.
+     */
+    void setIndex(LocationHistoryIndex index) {
+        mIndex = index;
+    }
+
+    /**
+     * @return end offset of the range currently handed to the listener.
+     */
+    long position() {
+        return mPosition;
+    }
+
+    void scan(@NonNull LocationHistoryScanner.Listener listener) throws IOException {
+        long size = mChannel.size();
+        int chunkCount = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        // Limit the number of chunks in flight, so memory use doesn't depend on the file size.
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        int nextChunk = 0;
+        try {
+            while (nextChunk < chunkCount || !pending.isEmpty()) {
+                while (nextChunk < chunkCount && pending.size() < mThreadCount * 2) {
+                    long start = nextChunk * CHUNK_SIZE;
+                    long end = ++nextChunk == chunkCount ? Long.MAX_VALUE : start + CHUNK_SIZE;
+                    pending.add(executor.submit(new ChunkTask(start, end)));
+                }
+                Chunk chunk = pending.remove().get();
+                mPosition = Math.min(chunk.end, size);
+                if (mIndex != null) {
+                    for (int i = 0; i < chunk.size; i++)
+                        mIndex.onTimestamp(chunk.timestamps[i]);
+                    for (int i = 0; i < chunk.size; i += LocationHistoryIndex.INTERVAL)
+                        mIndex.add(chunk.timestamps[i], chunk.offsets[i / LocationHistoryIndex.INTERVAL]);
+                }
+                for (int i = 0; i < chunk.size; i++) {
+                    if (!listener.onLocation(chunk.timestamps[i], chunk.latitudes[i],
+                            chunk.longitudes[i], chunk.accuracies[i]))
+                        return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        } finally {
+            mCancelled = true;
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Chunk {
+        final long end;
+        long[] timestamps = new long[1024];
+        int[] latitudes = new int[1024];
+        int[] longitudes = new int[1024];
+        int[] accuracies = new int[1024];
+        int size = 0;
+        // Offsets of every LocationHistoryIndex.INTERVAL-th record.
+        long[] offsets = new long[16];
+
+        Chunk(long end) {
+            this.end = end;
+        }
+
+        void add(long timestamp, int lat, int lng, int accuracy, long offset) {
+            if (size % LocationHistoryIndex.INTERVAL == 0) {
+                int entry = size / LocationHistoryIndex.INTERVAL;
+                if (entry == offsets.length) {
+                    long[] o = new long[entry * 2];
+                    System.arraycopy(offsets, 0, o, 0, entry);
+                    offsets = o;
+                }
+                offsets[entry] = offset;
+            }
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                long[] t = new long[capacity];
+                int[] la = new int[capacity];
+                int[] ln = new int[capacity];
+                int[] a = new int[capacity];
+                System.arraycopy(timestamps, 0, t, 0, size);
+                System.arraycopy(latitudes, 0, la, 0, size);
+                System.arraycopy(longitudes, 0, ln, 0, size);
+                System.arraycopy(accuracies, 0, a, 0, size);
+                timestamps = t;
+                latitudes = la;
+                longitudes = ln;
+                accuracies = a;
+            }
+            timestamps[size] = timestamp;
+            latitudes[size] = lat;
+            longitudes[size] = lng;
+            accuracies[size] = accuracy;
+            size++;
+        }
+    }
+
+    private class ChunkTask implements Callable<Chunk> {
+        private final long mStart;
+        private final long mEnd;
+
+        ChunkTask(long start, long end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            Chunk chunk = new Chunk(mEnd);
+            LocationHistoryScanner scanner = new LocationHistoryScanner(mChannel);
+            long recordStart = scanner.findRecordStart(mStart);
+            // A record belongs to the chunk its first byte is in.
+            if (recordStart < 0 || recordStart >= mEnd)
+                return chunk;
+            scanner.scanRecords(mEnd, (timestamp, lat, lng, accuracy) -> {
+                chunk.add(timestamp, lat, lng, accuracy, scanner.recordOffset());
+                return !mCancelled;
+            });
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.google.maps.android.utils.demo.repository;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The "Location History.json" entry of a Google Takeout zip.
+ *
+ * The entry is found through the central directory at the end of the archive (including ZIP64
+ * archives, Takeout zips are often larger than 4 GB), so the rest of the archive is never read.
+ * {@link #open} streams the entry through an Inflater, nothing is extracted to storage.
+ */
+class TakeoutZip {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ENTRY_NAME = "Location History.json";
+
+    final String name;
+    /** Uncompressed size. */
+    final long size;
+    private final int mMethod;
+    private final long mCompressedSize;
+    private final long mDataOffset;
+
+    private TakeoutZip(String name, int method, long compressedSize, long size, long dataOffset) {
+        this.name = name;
+        this.size = size;
+        mMethod = method;
+        mCompressedSize = compressedSize;
+        mDataOffset = dataOffset;
+    }
+
+    /**
+     * @return whether the file starts with a zip local file header.
+     */
+    static boolean isZip(@NonNull FileChannel channel) throws IOException {
+        if (channel.size() < 4)
+            return false;
+        ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buf, 0);
+        return buf.getInt(0) == LOCAL_HEADER_SIGNATURE;
+    }
+
+    /**
+     * Finds the location history entry.
+     * @return the entry, or null if the archive doesn't contain one.
+     */
+    static TakeoutZip find(@NonNull FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, fileSize - tailSize);
+        int end = tailSize - END_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_SIGNATURE)
+            end--;
+        if (end < 0)
+            throw new ZipException("End of central directory not found");
+
+        long entryCount = tail.getShort(end + 10) & 0xffff;
+        long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+        long endOffset = fileSize - tailSize + end;
+        if (endOffset >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, locator, endOffset - ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64End = ByteBuffer.allocate(ZIP64_END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, zip64End, locator.getLong(8));
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+                    throw new ZipException("Invalid ZIP64 end of central directory");
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize)
+            throw new ZipException("Invalid central directory");
+
+        ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] nameBytes = new byte[256];
+        int pos = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Invalid central directory entry");
+            int nameLength = directory.getShort(pos + 28) & 0xffff;
+            int extraLength = directory.getShort(pos + 30) & 0xffff;
+            int commentLength = directory.getShort(pos + 32) & 0xffff;
+            int next = pos + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (nameLength < nameBytes.length && isEntryName(directory, pos + CENTRAL_HEADER_SIZE, nameLength)) {
+                directory.position(pos + CENTRAL_HEADER_SIZE);
+                directory.get(nameBytes, 0, nameLength);
+                String name = new String(nameBytes, 0, nameLength, utf8);
+                int flags = directory.getShort(pos + 8) & 0xffff;
+                int method = directory.getShort(pos + 10) & 0xffff;
+                if ((flags & FLAG_ENCRYPTED) != 0 || (method != STORED && method != DEFLATED))
+                    throw new ZipException("Unsupported entry " + name + " (method " + method + ")");
+                long compressedSize = directory.getInt(pos + 20) & ZIP64_MAGIC;
+                long size = directory.getInt(pos + 24) & ZIP64_MAGIC;
+                long localOffset = directory.getInt(pos + 42) & ZIP64_MAGIC;
+
+                // ZIP64 extra field, holding (only) the values that didn't fit, in this order.
+                int extra = pos + CENTRAL_HEADER_SIZE + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xffff;
+                    int length = directory.getShort(extra + 2) & 0xffff;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (localOffset == ZIP64_MAGIC)
+                            localOffset = directory.getLong(field);
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+
+                ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, local, localOffset);
+                if (local.getInt(0) != LOCAL_HEADER_SIGNATURE)
+                    throw new ZipException("Invalid local header for " + name);
+                long dataOffset = localOffset + LOCAL_HEADER_SIZE +
+                        (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+                return new TakeoutZip(name, method, compressedSize, size, dataOffset);
+            }
+            pos = next;
+        }
+        return null;
+    }
+
+    private static boolean isEntryName(ByteBuffer directory, int offset, int length) {
+        // Matches "Location History.json" at any depth, Takeout puts it in "Takeout/Location History/".
+        int suffixLength = ENTRY_NAME.length();
+        if (length < suffixLength)
+            return false;
+        int start = offset + length - suffixLength;
+        if (length > suffixLength && directory.get(start - 1) != '/')
+            return false;
+        for (int i = 0; i < suffixLength; i++) {
+            if (directory.get(start + i) != ENTRY_NAME.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return channel of the uncompressed entry data, reading from the given channel with absolute
+     * positions. Only supports reads into buffers with a backing array.
+     */
+    ReadableByteChannel open(@NonNull FileChannel channel) {
+        if (mMethod == STORED)
+            return new StoredChannel(channel, mDataOffset, mDataOffset + size);
+        return new InflatingChannel(channel, mDataOffset, mDataOffset + mCompressedSize);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0)
+                throw new EOFException();
+            position += read;
+        }
+    }
+
+    private static class StoredChannel implements ReadableByteChannel {
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private long mPosition;
+        private boolean mOpen = true;
+
+        StoredChannel(FileChannel channel, long start, long end) {
+            mChannel = channel;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!mOpen)
+                throw new ClosedChannelException();
+            if (mPosition >= mEnd)
+                return -1;
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) Math.min(dst.remaining(), mEnd - mPosition));
+            int read = mChannel.read(dst, mPosition);
+            dst.limit(limit);
+            if (read < 0)
+                throw new EOFException();
+            mPosition += read;
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mOpen;
+        }
+
+        @Override
+        public void close() {
+            mOpen = false;
+        }
+    }
+
+    private static class InflatingChannel implements ReadableByteChannel {
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private final Inflater mInflater = new Inflater(true);
+        private final ByteBuffer mInput = ByteBuffer.allocate(BUFFER_SIZE);
+        private long mPosition;
+        private boolean mDummyByteSent = false;
+        private boolean mOpen = true;
+
+        InflatingChannel(FileChannel channel, long start, long end) {
+            mChannel = channel;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!mOpen)
+                throw new ClosedChannelException();
+            if (!dst.hasRemaining())
+                return 0;
+            try {
+                while (true) {
+                    int inflated = mInflater.inflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                    if (inflated > 0) {
+                        dst.position(dst.position() + inflated);
+                        return inflated;
+                    }
+                    if (mInflater.finished())
+                        return -1;
+                    if (mInflater.needsDictionary())
+                        throw new ZipException("Inflater needs a dictionary");
+                    if (mInflater.needsInput())
+                        fill();
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+
+        private void fill() throws IOException {
+            mInput.clear();
+            if (mPosition >= mEnd) {
+                // Inflater in nowrap mode may need an extra byte to detect the end of the stream.
+                if (mDummyByteSent)
+                    throw new EOFException("Unexpected end of zip entry");
+                mDummyByteSent = true;
+                mInflater.setInput(new byte[1], 0, 1);
+                return;
+            }
+            mInput.limit((int) Math.min(mInput.capacity(), mEnd - mPosition));
+            int read = mChannel.read(mInput, mPosition);
+            if (read <= 0)
+                throw new EOFException("Unexpected end of zip entry");
+            mPosition += read;
+            mInflater.setInput(mInput.array(), 0, read);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mOpen;
+        }
+
+        @Override
+        public void close() {
+            if (mOpen)
+                mInflater.end();
+            mOpen = false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.maps.android.utils.demo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.utils.demo.model.MediaItem;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times building HierarchicalClusterAlgorithm's hierarchy, looking up the clusters of a phone
+ * screen sized area, and a load adding the items in batches, with and without deferred builds.
+ *
+ * Only runs with -Dbenchmark=true (gradle: -Pbenchmark). Runs with 100k and 1M items by default,
+ * which can be changed with -Dbenchmark.items (comma separated).
+ */
+public class HierarchicalClusterAlgorithmBenchmark {
+    private static final int RUNS = 3;
+    // A load publishes about once a second, for a minute or so.
+    private static final int BATCHES = 60;
+    private static final int[] ZOOMS = { 3, 8, 13, 18 };
+
+    @BeforeClass
+    public static void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void buildAndQuery() {
+        for (String count : System.getProperty("benchmark.items", "100000,1000000").split(",")) {
+            List<MediaItem> items = HierarchicalClusterAlgorithmTest.items(Integer.parseInt(count.trim()), 42);
+            LatLng centre = items.get(0).getPosition();
+            for (int run = 0; run < RUNS; run++) {
+                HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+                algorithm.addItems(items);
+                long start = System.nanoTime();
+                algorithm.getClusters(0);
+                long buildMs = (System.nanoTime() - start) / 1000000;
+                StringBuilder queries = new StringBuilder();
+                for (int zoom : ZOOMS) {
+                    // About 1000 x 2000 pixels.
+                    double width = 360 * 1000 / 256 / Math.pow(2, zoom);
+                    LatLngBounds bounds = new LatLngBounds(
+                            new LatLng(Math.max(-85, centre.latitude - width), centre.longitude - width / 2),
+                            new LatLng(Math.min(85, centre.latitude + width), centre.longitude + width / 2));
+                    start = System.nanoTime();
+                    int clusters = algorithm.getClusters(zoom, bounds).size();
+                    queries.append(String.format(Locale.US, ", zoom %d %.2f ms (%d clusters)", zoom,
+                            (System.nanoTime() - start) / 1e6, clusters));
+                }
+                System.out.println(String.format(Locale.US, "%,d items run %d: build %d ms%s",
+                        items.size(), run, buildMs, queries));
+            }
+            System.out.println(String.format(Locale.US, "%,d items in %d batches: deferred builds %d ms",
+                    items.size(), BATCHES, load(items, true)));
+            // A build per batch takes minutes with 1M items.
+            if (items.size() <= 100000) {
+                System.out.println(String.format(Locale.US, "%,d items in %d batches: build per batch %d ms",
+                        items.size(), BATCHES, load(items, false)));
+            }
+        }
+    }
+
+    /**
+     * Adds the items in batches, clustering after each as the map does, then once complete.
+     * @return the time taken, in milliseconds.
+     */
+    private static long load(List<MediaItem> items, boolean deferBuilds) {
+        HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+        long start = System.nanoTime();
+        algorithm.setDeferBuilds(deferBuilds);
+        for (int i = 0; i < BATCHES; i++) {
+            algorithm.addItems(items.subList(items.size() * i / BATCHES, items.size() * (i + 1) / BATCHES));
+            algorithm.getClusters(10);
+        }
+        algorithm.setDeferBuilds(false);
+        algorithm.getClusters(10);
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -0,0 +1,170 @@
+package com.google.maps.android.utils.demo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.utils.demo.model.MediaItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalClusterAlgorithmTest {
+    // Above the highest zoom items are clustered at.
+    private static final int UNCLUSTERED_ZOOM = 22;
+
+    /**
+     * Items scattered around places, as photos are: most within a few hundred metres of one of
+     * 2000 places, some within a few kilometres.
+     */
+    static List<MediaItem> items(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] places = new double[2000][];
+        for (int i = 0; i < places.length; i++)
+            places[i] = new double[] { random.nextDouble() * 140 - 70, random.nextDouble() * 360 - 180 };
+        List<MediaItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double[] place = places[random.nextInt(places.length)];
+            double spread = random.nextInt(10) == 0 ? 0.03 : 0.003;
+            double lng = place[1] + random.nextGaussian() * spread;
+            if (lng >= 180)
+                lng -= 360;
+            else if (lng < -180)
+                lng += 360;
+            items.add(new MediaItem(new LatLng(place[0] + random.nextGaussian() * spread, lng),
+                    "/sdcard/DCIM/Camera/" + i + ".jpg", i, i * 1000L, i, i, 1));
+        }
+        return items;
+    }
+
+    private static int itemCount(Set<? extends Cluster<MediaItem>> clusters) {
+        int count = 0;
+        for (Cluster<MediaItem> cluster : clusters)
+            count += cluster.getSize();
+        return count;
+    }
+
+    private static boolean contains(LatLngBounds bounds, LatLng position) {
+        if (position.latitude < bounds.southwest.latitude || position.latitude > bounds.northeast.latitude)
+            return false;
+        if (bounds.southwest.longitude <= bounds.northeast.longitude)
+            return position.longitude >= bounds.southwest.longitude && position.longitude <= bounds.northeast.longitude;
+        return position.longitude >= bounds.southwest.longitude || position.longitude <= bounds.northeast.longitude;
+    }
+
+    @Test
+    public void everyItemIsInOneClusterAtEveryZoom() {
+        List<MediaItem> items = items(20000, 1);
+        HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+        algorithm.addItems(items);
+        int previousClusters = 0;
+        for (int zoom = 0; zoom <= UNCLUSTERED_ZOOM; zoom++) {
+            Set<? extends Cluster<MediaItem>> clusters = algorithm.getClusters(zoom);
+            Set<MediaItem> clustered = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Cluster<MediaItem> cluster : clusters) {
+                assertEquals(cluster.getSize(), cluster.getItems().size());
+                clustered.addAll(cluster.getItems());
+            }
+            assertEquals(items.size(), itemCount(clusters));
+            assertEquals(items.size(), clustered.size());
+            // Fewer clusters further out.
+            assertTrue(clusters.size() >= previousClusters);
+            previousClusters = clusters.size();
+        }
+        assertEquals(items.size(), previousClusters);
+        assertTrue(algorithm.getClusters(0).size() < 2000);
+    }
+
+    @Test
+    public void boundsQueriesMatchFilteredClusters() {
+        HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+        algorithm.addItems(items(20000, 2));
+        Random random = new Random(3);
+        for (int zoom = 0; zoom <= UNCLUSTERED_ZOOM; zoom += 3) {
+            Set<? extends Cluster<MediaItem>> all = algorithm.getClusters(zoom);
+            for (int i = 0; i < 20; i++) {
+                double lat = random.nextDouble() * 110 - 70;
+                double lng = random.nextDouble() * 360 - 180;
+                // Some across the antimeridian.
+                double height = random.nextDouble() * 40;
+                double width = random.nextDouble() * 80;
+                double east = lng + width >= 180 ? lng + width - 360 : lng + width;
+                LatLngBounds bounds = new LatLngBounds(new LatLng(lat, lng), new LatLng(lat + height, east));
+                Set<Cluster<MediaItem>> expected = new HashSet<>();
+                for (Cluster<MediaItem> cluster : all) {
+                    if (contains(bounds, cluster.getPosition()))
+                        expected.add(cluster);
+                }
+                assertEquals(expected, new HashSet<>(algorithm.getClusters(zoom, bounds)));
+            }
+        }
+    }
+
+    @Test
+    public void viewportLimitsClustersToTheMargin() {
+        HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+        List<MediaItem> items = items(20000, 5);
+        algorithm.addItems(items);
+        // A degree around an item, then the same across the antimeridian.
+        LatLng centre = items.get(0).getPosition();
+        double[][] viewports = {
+                { centre.latitude - 0.5, centre.longitude - 0.5, centre.latitude + 0.5, centre.longitude + 0.5 },
+                { 10, 179.5, 11, -179.5 } };
+        for (double[] viewport : viewports) {
+            algorithm.setViewport(null);
+            assertTrue(!algorithm.shouldReclusterOnMapMovement());
+            Set<? extends Cluster<MediaItem>> all = algorithm.getClusters(12);
+            algorithm.setViewport(new LatLngBounds(new LatLng(viewport[0], viewport[1]),
+                    new LatLng(viewport[2], viewport[3])));
+            assertTrue(algorithm.shouldReclusterOnMapMovement());
+            // Half the viewport added on each side.
+            double west = viewport[1] - 0.5 < -180 ? viewport[1] + 359.5 : viewport[1] - 0.5;
+            double east = viewport[3] + 0.5 >= 180 ? viewport[3] - 359.5 : viewport[3] + 0.5;
+            LatLngBounds withMargin = new LatLngBounds(new LatLng(viewport[0] - 0.5, west),
+                    new LatLng(viewport[2] + 0.5, east));
+            Set<Cluster<MediaItem>> expected = new HashSet<>();
+            for (Cluster<MediaItem> cluster : all) {
+                if (contains(withMargin, cluster.getPosition()))
+                    expected.add(cluster);
+            }
+            Set<? extends Cluster<MediaItem>> clusters = algorithm.getClusters(12);
+            assertTrue(clusters.size() < all.size());
+            assertEquals(expected, new HashSet<>(clusters));
+        }
+    }
+
+    @Test
+    public void deferredBuildsWaitForTheItemsToDouble() {
+        List<MediaItem> items = items(4000, 4);
+        HierarchicalClusterAlgorithm<MediaItem> algorithm = new HierarchicalClusterAlgorithm<>();
+        algorithm.setDeferBuilds(true);
+        algorithm.addItems(items.subList(0, 1000));
+        assertEquals(1000, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+        algorithm.addItems(items.subList(1000, 1500));
+        assertEquals(1000, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+        algorithm.addItems(items.subList(1500, 2100));
+        assertEquals(2100, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+        algorithm.addItems(items.subList(2100, 2200));
+        assertEquals(2100, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+
+        // A removed item isn't shown any longer.
+        algorithm.removeItem(items.get(0));
+        assertEquals(2199, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+        algorithm.addItems(items.subList(2200, 2300));
+        assertEquals(2199, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+
+        algorithm.setDeferBuilds(false);
+        assertEquals(2299, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+        algorithm.addItems(items.subList(2300, 2400));
+        assertEquals(2399, itemCount(algorithm.getClusters(UNCLUSTERED_ZOOM)));
+    }
+}
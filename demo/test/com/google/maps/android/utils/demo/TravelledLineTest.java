@@ -0,0 +1,147 @@
+package com.google.maps.android.utils.demo;
+
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TravelledLineTest {
+    private static final int NEVER = 22;
+
+    private static LocationHistory line(double[] lats, double[] lngs) {
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        for (int i = 0; i < lats.length; i++)
+            builder.add(i, (int) Math.round(lats[i] * 1e7), (int) Math.round(lngs[i] * 1e7));
+        return builder.build();
+    }
+
+    @Test
+    public void emptyAndSinglePoint() {
+        assertEquals(0, TravelledLine.buildMinZoom(LocationHistory.EMPTY).length);
+        byte[] minZoom = TravelledLine.buildMinZoom(line(new double[] { 1 }, new double[] { 2 }));
+        assertEquals(1, minZoom.length);
+        assertEquals(0, minZoom[0]);
+    }
+
+    @Test
+    public void endsAreAlwaysShownAndCollinearPointsNever() {
+        double[] lats = new double[100];
+        double[] lngs = new double[100];
+        for (int i = 0; i < lats.length; i++)
+            lngs[i] = i * 0.01;
+        byte[] minZoom = TravelledLine.buildMinZoom(line(lats, lngs));
+        assertEquals(0, minZoom[0]);
+        assertEquals(0, minZoom[99]);
+        for (int i = 1; i < 99; i++)
+            assertEquals(NEVER, minZoom[i]);
+    }
+
+    @Test
+    public void largerDetoursShowAtLowerZooms() {
+        byte[] minZoom = TravelledLine.buildMinZoom(line(
+                new double[] { 0, 10, 0, 0.001, 0, 0.00001, 0 },
+                new double[] { 0, 1, 2, 3, 4, 5, 6 }));
+        assertTrue(minZoom[1] < minZoom[3]);
+        assertTrue(minZoom[3] < minZoom[5]);
+        assertTrue(minZoom[5] <= 21);
+    }
+
+    @Test
+    public void levelsMatchSeparateDouglasPeuckerRuns() {
+        Random random = new Random(9);
+        int count = 3000;
+        double[] lats = new double[count];
+        double[] lngs = new double[count];
+        for (int i = 1; i < count; i++) {
+            // Random walk with steps between meters and kilometers.
+            double step = Math.pow(10, -5 + random.nextDouble() * 3);
+            lats[i] = lats[i - 1] + random.nextGaussian() * step;
+            lngs[i] = lngs[i - 1] + random.nextGaussian() * step;
+        }
+        LocationHistory history = line(lats, lngs);
+        byte[] minZoom = TravelledLine.buildMinZoom(history);
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = history.getLongitude(i) / 360 + 0.5;
+            double sinLat = Math.sin(Math.toRadians(history.getLatitude(i)));
+            y[i] = 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+        }
+        for (int zoom = 0; zoom < NEVER; zoom++) {
+            double tolerance = 0.5 / (256.0 * (1 << zoom));
+            boolean[] kept = new boolean[count];
+            kept[0] = true;
+            kept[count - 1] = true;
+            douglasPeucker(x, y, 0, count - 1, tolerance * tolerance, kept);
+            for (int i = 0; i < count; i++)
+                assertEquals("Point " + i + " at zoom " + zoom, kept[i], minZoom[i] <= zoom);
+        }
+    }
+
+    @Test
+    public void levelSegmentsShareEndsAndBoundTheirPoints() {
+        Random random = new Random(4);
+        int count = 2000;
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        byte[] minZoom = new byte[count];
+        for (int i = 0; i < count; i++) {
+            builder.add(i, random.nextInt(1000000), random.nextInt(1000000));
+            minZoom[i] = (byte) random.nextInt(NEVER + 1);
+        }
+        LocationHistory history = builder.build();
+        for (int zoom : new int[] { 0, 10, 21 }) {
+            TravelledLine.Level level = new TravelledLine.Level(zoom, minZoom, history);
+            int expected = 0;
+            for (byte z : minZoom) {
+                if (z <= zoom)
+                    expected++;
+            }
+            assertEquals(expected, level.indices.length);
+            assertEquals(0, level.segmentStarts[0]);
+            assertEquals(expected - 1, level.segmentStarts[level.segmentCount()]);
+            for (int i = 0; i < level.segmentCount(); i++) {
+                int points = level.segmentStarts[i + 1] - level.segmentStarts[i] + 1;
+                assertTrue(points >= 2 && points <= 256);
+                for (int j = level.segmentStarts[i]; j <= level.segmentStarts[i + 1]; j++) {
+                    int index = level.indices[j];
+                    assertTrue(minZoom[index] <= zoom);
+                    assertTrue(history.getLatitudeE7(index) >= level.bounds[i * 4]);
+                    assertTrue(history.getLongitudeE7(index) >= level.bounds[i * 4 + 1]);
+                    assertTrue(history.getLatitudeE7(index) <= level.bounds[i * 4 + 2]);
+                    assertTrue(history.getLongitudeE7(index) <= level.bounds[i * 4 + 3]);
+                }
+            }
+        }
+        assertEquals(0, new TravelledLine.Level(0, new byte[1], history).segmentCount());
+    }
+
+    private static void douglasPeucker(double[] x, double[] y, int first, int last, double toleranceSq,
+                                       boolean[] kept) {
+        double dx = x[last] - x[first];
+        double dy = y[last] - y[first];
+        double lengthSq = dx * dx + dy * dy;
+        double maxDistSq = -1;
+        int farthest = -1;
+        for (int i = first + 1; i < last; i++) {
+            double px = x[i] - x[first];
+            double py = y[i] - y[first];
+            double t = lengthSq == 0 ? 0 : Math.max(0, Math.min((px * dx + py * dy) / lengthSq, 1));
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            double distSq = ex * ex + ey * ey;
+            if (distSq > maxDistSq) {
+                maxDistSq = distSq;
+                farthest = i;
+            }
+        }
+        if (farthest < 0 || maxDistSq <= toleranceSq)
+            return;
+        kept[farthest] = true;
+        douglasPeucker(x, y, first, farthest, toleranceSq, kept);
+        douglasPeucker(x, y, farthest, last, toleranceSq, kept);
+    }
+}
@@ -0,0 +1,115 @@
+package com.google.maps.android.utils.demo.model;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationHistoryTest {
+
+    private static LocationHistory history(long... timestamps) {
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        for (long timestamp : timestamps)
+            builder.add(timestamp, (int) timestamp * 10, (int) timestamp * 100);
+        return builder.build();
+    }
+
+    private static void assertMatches(TreeMap<Long, int[]> expected, LocationHistory history) {
+        assertEquals(expected.size(), history.size());
+        int i = 0;
+        for (Map.Entry<Long, int[]> entry : expected.entrySet()) {
+            assertEquals((long) entry.getKey(), history.getTimestamp(i));
+            assertEquals(entry.getValue()[0], history.getLatitudeE7(i));
+            assertEquals(entry.getValue()[1], history.getLongitudeE7(i));
+            i++;
+        }
+    }
+
+    @Test
+    public void buildSortsAndKeepsTheLastDuplicateLikeATreeMap() {
+        Random random = new Random(5);
+        for (int size : new int[] { 0, 1, 2, 17, 1000, 5000 }) {
+            TreeMap<Long, int[]> expected = new TreeMap<>();
+            // Start small so the builder has to grow.
+            LocationHistory.Builder builder = new LocationHistory.Builder(1);
+            for (int i = 0; i < size; i++) {
+                // Plenty of duplicate timestamps.
+                long timestamp = random.nextInt(size / 2 + 1);
+                int lat = random.nextInt();
+                int lng = random.nextInt();
+                expected.put(timestamp, new int[] { lat, lng });
+                builder.add(timestamp, lat, lng);
+            }
+            assertEquals(size, builder.size());
+            assertMatches(expected, builder.build());
+        }
+    }
+
+    @Test
+    public void sortedInputWithDuplicatesKeepsTheLast() {
+        LocationHistory history = new LocationHistory.Builder()
+                .add(1, 1, 1).add(2, 2, 2).add(2, 3, 3).add(3, 4, 4).build();
+        assertEquals(3, history.size());
+        assertEquals(2, history.getTimestamp(1));
+        assertEquals(3, history.getLatitudeE7(1));
+    }
+
+    @Test
+    public void emptyBuildsEmpty() {
+        assertSame(LocationHistory.EMPTY, new LocationHistory.Builder().build());
+        assertEquals(-1, LocationHistory.EMPTY.floorIndex(0));
+        assertEquals(-1, LocationHistory.EMPTY.ceilingIndex(0));
+        assertTrue(LocationHistory.EMPTY.subRange(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void floorAndCeiling() {
+        LocationHistory history = history(10, 20, 30);
+        assertEquals(-1, history.floorIndex(9));
+        assertEquals(0, history.floorIndex(10));
+        assertEquals(0, history.floorIndex(19));
+        assertEquals(2, history.floorIndex(Long.MAX_VALUE));
+        assertEquals(0, history.ceilingIndex(Long.MIN_VALUE));
+        assertEquals(1, history.ceilingIndex(11));
+        assertEquals(1, history.ceilingIndex(20));
+        assertEquals(-1, history.ceilingIndex(31));
+    }
+
+    @Test
+    public void subRangeIsAnInclusiveView() {
+        LocationHistory history = history(10, 20, 30, 40, 50);
+        assertSame(history, history.subRange(10, 50));
+        LocationHistory sub = history.subRange(20, 40);
+        assertEquals(3, sub.size());
+        assertEquals(20, sub.getTimestamp(0));
+        assertEquals(400, sub.getLatitudeE7(2));
+        // Indices are relative to the view.
+        assertEquals(0, sub.floorIndex(25));
+        assertEquals(2, sub.ceilingIndex(35));
+        assertEquals(-1, sub.ceilingIndex(45));
+        assertEquals(1, sub.subRange(25, 35).size());
+        assertTrue(history.subRange(41, 49).isEmpty());
+        assertTrue(history.subRange(50, 10).isEmpty());
+    }
+
+    @Test
+    public void addAllAndLatLngRoundTrip() {
+        LocationHistory.Builder builder = new LocationHistory.Builder()
+                .add(5, new LatLng(52.5200066, -13.4049540));
+        builder.addAll(history(1, 2).subRange(2, 2));
+        LocationHistory history = builder.build();
+        assertEquals(2, history.size());
+        assertEquals(2, history.getTimestamp(0));
+        assertEquals(525200066, history.getLatitudeE7(1));
+        assertEquals(-134049540, history.getLongitudeE7(1));
+        assertEquals(52.5200066, history.getLatLng(1).latitude, 1e-9);
+        assertEquals(-13.4049540, history.getLongitude(1), 1e-9);
+    }
+}
@@ -0,0 +1,137 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExifGpsReaderTest {
+    // 37 25' 19.2", 122 5' 2.4"
+    private static final double LATITUDE = 37 + 25 / 60d + 19.2 / 3600;
+    private static final double LONGITUDE = 122 + 5 / 60d + 2.4 / 3600;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final ExifGpsReader mReader = new ExifGpsReader();
+
+    /**
+     * TIFF structure with IFD0 pointing to a GPS IFD, with an empty one if latitudeRef
+     * is 0.
+     */
+    private static byte[] tiff(ByteOrder order, char latitudeRef, char longitudeRef) {
+        ByteBuffer buf = ByteBuffer.allocate(200).order(order);
+        buf.putShort((short) (order == ByteOrder.LITTLE_ENDIAN ? 0x4949 : 0x4d4d)).putShort((short) 42).putInt(8);
+        // IFD0 at 8: a make tag (ignored), and the GPS IFD pointer.
+        buf.putShort((short) 2);
+        buf.putShort((short) 0x010f).putShort((short) 2).putInt(4)
+                .put("Foo".getBytes(Charset.forName("US-ASCII"))).put((byte) 0);
+        buf.putShort((short) 0x8825).putShort((short) 4).putInt(1).putInt(38);
+        buf.putInt(0);
+        if (latitudeRef == 0) {
+            // Empty GPS IFD.
+            buf.putShort((short) 0).putInt(0);
+            return Arrays.copyOf(buf.array(), buf.position());
+        }
+        // GPS IFD at 38, with a version tag first and rationals after it at 38 + 2 + 5 * 12 + 4.
+        int rationals = 38 + 2 + 5 * 12 + 4;
+        buf.putShort((short) 5);
+        buf.putShort((short) 0).putShort((short) 1).putInt(4).put(new byte[] { 2, 2, 0, 0 });
+        buf.putShort((short) 1).putShort((short) 2).putInt(2).put((byte) latitudeRef).put(new byte[3]);
+        buf.putShort((short) 2).putShort((short) 5).putInt(3).putInt(rationals);
+        buf.putShort((short) 3).putShort((short) 2).putInt(2).put((byte) longitudeRef).put(new byte[3]);
+        buf.putShort((short) 4).putShort((short) 5).putInt(3).putInt(rationals + 24);
+        buf.putInt(0);
+        buf.putInt(37).putInt(1).putInt(25).putInt(1).putInt(192).putInt(10);
+        buf.putInt(122).putInt(1).putInt(5).putInt(1).putInt(24).putInt(10);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[]... parts) {
+        int length = 2;
+        for (byte[] part : parts)
+            length += part.length;
+        out.write(0xff);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+    }
+
+    private File jpeg(boolean xmpFirst, byte[] tiff) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        segment(out, 0xe0, "JFIF\0".getBytes(Charset.forName("US-ASCII")), new byte[9]);
+        if (xmpFirst)
+            segment(out, 0xe1, "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes(Charset.forName("US-ASCII")));
+        if (tiff != null)
+            segment(out, 0xe1, "Exif\0\0".getBytes(Charset.forName("US-ASCII")), tiff);
+        segment(out, 0xda, new byte[10]);
+        // Image data the reader shouldn't touch.
+        out.write(new byte[100000], 0, 100000);
+        out.write(0xff);
+        out.write(0xd9);
+        File file = mFolder.newFile();
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    private void assertLocation(double latitude, double longitude, float[] latLong) {
+        assertNotNull(latLong);
+        assertEquals(latitude, latLong[0], 1e-5);
+        assertEquals(longitude, latLong[1], 1e-5);
+    }
+
+    @Test
+    public void readsBothByteOrders() throws IOException {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN })
+            assertLocation(LATITUDE, LONGITUDE, mReader.read(jpeg(false, tiff(order, 'N', 'E')).getPath()));
+    }
+
+    @Test
+    public void southAndWestAreNegative() throws IOException {
+        assertLocation(-LATITUDE, -LONGITUDE,
+                mReader.read(jpeg(false, tiff(ByteOrder.BIG_ENDIAN, 'S', 'W')).getPath()));
+        assertLocation(-LATITUDE, LONGITUDE,
+                mReader.read(jpeg(false, tiff(ByteOrder.LITTLE_ENDIAN, 'S', 'E')).getPath()));
+    }
+
+    @Test
+    public void skipsXmpSegment() throws IOException {
+        assertLocation(LATITUDE, LONGITUDE,
+                mReader.read(jpeg(true, tiff(ByteOrder.LITTLE_ENDIAN, 'N', 'E')).getPath()));
+    }
+
+    @Test
+    public void noLocationIsNull() throws IOException {
+        // No GPS tags, and no EXIF segment at all.
+        assertNull(mReader.read(jpeg(false, tiff(ByteOrder.LITTLE_ENDIAN, (char) 0, (char) 0)).getPath()));
+        assertNull(mReader.read(jpeg(true, null).getPath()));
+    }
+
+    @Test
+    public void readsOnlyTheHeader() throws IOException {
+        for (int i = 0; i < 10; i++)
+            mReader.read(jpeg(true, tiff(ByteOrder.BIG_ENDIAN, 'N', 'W')).getPath());
+        String stats = mReader.getStats();
+        assertTrue(stats, stats.startsWith("10 files (0 via ExifInterface), "));
+        // Each file is over 100 KB, all but the first few hundred bytes is image data.
+        int kilobytes = Integer.parseInt(stats.replaceAll(".*, (\\d+) KB read.*", "$1"));
+        assertTrue(stats, kilobytes < 10);
+    }
+}
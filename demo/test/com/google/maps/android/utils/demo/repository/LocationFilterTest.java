@@ -0,0 +1,164 @@
+package com.google.maps.android.utils.demo.repository;
+
+import com.google.maps.android.utils.demo.model.LocationHistory;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationFilterTest {
+    private static final long MINUTE = 60 * 1000;
+
+    /**
+     * A walk with a sample every 10 s, stopping for 20 minutes every so often, with a few metres
+     * of GPS noise throughout.
+     */
+    private static LocationHistory track(long seed, long startTime, int size) {
+        Random random = new Random(seed);
+        LocationHistory.Builder builder = new LocationHistory.Builder(size);
+        double lat = 51.5 * 1e7;
+        double lng = -0.12 * 1e7;
+        double heading = 0;
+        long timestamp = startTime;
+        int stopped = 0;
+        for (int i = 0; i < size; i++) {
+            if (stopped > 0) {
+                stopped--;
+            } else if (random.nextInt(200) == 0) {
+                stopped = 120;
+            } else {
+                heading += random.nextGaussian() * 0.3;
+                // About 1.5 m/s.
+                lat += Math.cos(heading) * 135;
+                lng += Math.sin(heading) * 215;
+            }
+            builder.add(timestamp, (int) (lat + random.nextGaussian() * 20),
+                    (int) (lng + random.nextGaussian() * 30));
+            timestamp += 10000;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the largest distance of an original sample from the filtered track interpolated at
+     * its time.
+     */
+    private static double maxError(LocationHistory original, LocationHistory filtered) {
+        double maxErrorSq = 0;
+        for (int i = 0; i < original.size(); i++) {
+            long timestamp = original.getTimestamp(i);
+            int floor = filtered.floorIndex(timestamp);
+            int ceiling = filtered.ceilingIndex(timestamp);
+            assertTrue(floor >= 0 && ceiling >= 0);
+            long duration = filtered.getTimestamp(ceiling) - filtered.getTimestamp(floor);
+            double fraction = duration > 0 ? (double) (timestamp - filtered.getTimestamp(floor)) / duration : 0;
+            int lat = (int) Math.round(filtered.getLatitudeE7(floor) +
+                    (filtered.getLatitudeE7(ceiling) - filtered.getLatitudeE7(floor)) * fraction);
+            int lng = (int) Math.round(filtered.getLongitudeE7(floor) +
+                    (filtered.getLongitudeE7(ceiling) - filtered.getLongitudeE7(floor)) * fraction);
+            maxErrorSq = Math.max(maxErrorSq, LocationFilter.distanceSq(lat, lng,
+                    original.getLatitudeE7(i), original.getLongitudeE7(i)));
+        }
+        return Math.sqrt(maxErrorSq);
+    }
+
+    private static void assertEndsKept(LocationHistory original, LocationHistory filtered) {
+        assertEquals(original.getTimestamp(0), filtered.getTimestamp(0));
+        assertEquals(original.getTimestamp(original.size() - 1), filtered.getTimestamp(filtered.size() - 1));
+    }
+
+    @Test
+    public void minDeltaFilterStaysWithinError() {
+        LocationHistory history = track(1, 1000000, 20000);
+        for (double maxError : new double[] { 5, 25, 100 }) {
+            LocationHistory filtered = new MinDeltaFilter(maxError).apply(history);
+            assertEndsKept(history, filtered);
+            assertTrue(filtered.size() < history.size());
+            // Plus rounding to whole E7 units.
+            assertTrue(maxError(history, filtered) <= maxError + 0.05);
+        }
+    }
+
+    @Test
+    public void dwellFilterStaysWithinRadius() {
+        LocationHistory history = track(2, 1000000, 20000);
+        LocationHistory filtered = new DwellFilter(25, 5 * MINUTE).apply(history);
+        assertEndsKept(history, filtered);
+        assertTrue(filtered.size() < history.size());
+        assertTrue(maxError(history, filtered) <= 25 + 0.05);
+    }
+
+    @Test
+    public void chainedFiltersStayWithinTheSumOfTheirErrors() {
+        LocationHistory history = track(3, 1000000, 20000);
+        List<LocationFilter> filters = Arrays.asList(new DwellFilter(25, 5 * MINUTE), new MinDeltaFilter(25));
+        LocationHistory filtered = LocationFilter.applyAll(filters, history);
+        assertEndsKept(history, filtered);
+        assertTrue(filtered.size() < history.size() / 4);
+        assertTrue(maxError(history, filtered) <= 50 + 0.1);
+    }
+
+    @Test
+    public void stationaryRunBecomesTwoSamples() {
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        for (int i = 0; i < 100; i++)
+            builder.add(i * 10000L, 515000000 + (i % 3) * 10, -1200000 + (i % 5) * 10);
+        LocationHistory history = builder.build();
+        LocationHistory filtered = new DwellFilter(10, 5 * MINUTE).apply(history);
+        assertEquals(2, filtered.size());
+        assertEquals(0, filtered.getTimestamp(0));
+        assertEquals(990000, filtered.getTimestamp(1));
+        assertEquals(filtered.getLatitudeE7(0), filtered.getLatitudeE7(1));
+        assertEquals(filtered.getLongitudeE7(0), filtered.getLongitudeE7(1));
+
+        // Too short to be a dwell.
+        assertSame(history, new DwellFilter(10, 20 * MINUTE).apply(history));
+    }
+
+    @Test
+    public void shortHistoryIsUnchanged() {
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        builder.add(0, 515000000, -1200000);
+        builder.add(10000, 515000001, -1200001);
+        LocationHistory history = builder.build();
+        assertSame(history, new MinDeltaFilter(100).apply(history));
+        assertSame(LocationHistory.EMPTY, new MinDeltaFilter(100).apply(LocationHistory.EMPTY));
+        assertEquals(0, new DwellFilter(100, MINUTE).apply(LocationHistory.EMPTY).size());
+    }
+
+    @Test
+    public void crossingTheAntimeridianDoesNotOverflow() {
+        LocationHistory.Builder builder = new LocationHistory.Builder();
+        for (int i = 0; i < 10; i++)
+            builder.add(i * 10000L, 0, i % 2 == 0 ? 1799999999 : -1799999999);
+        LocationHistory history = builder.build();
+        // Far apart in E7 units, nothing is within error.
+        assertEquals(history.size(), new MinDeltaFilter(100).apply(history).size());
+    }
+
+    @Test
+    public void separatelyFilteredRangesKeepTheirEnds() {
+        // Two stretches of track, with over a month in between that wasn't loaded.
+        LocationHistory first = track(4, 0, 5000);
+        LocationHistory second = track(4, 40L * 24 * 60 * MINUTE, 5000);
+        List<LocationFilter> filters = Arrays.asList(new DwellFilter(25, 5 * MINUTE), new MinDeltaFilter(25));
+        LocationHistory filtered = new LocationHistory.Builder()
+                .addAll(LocationFilter.applyAll(filters, first))
+                .addAll(LocationFilter.applyAll(filters, second))
+                .build();
+        // The last sample of the first range and the first of the second are kept, so nothing is
+        // interpolated across the gap.
+        assertTrue(filtered.floorIndex(first.getTimestamp(first.size() - 1)) >= 0);
+        assertEquals(first.getTimestamp(first.size() - 1),
+                filtered.getTimestamp(filtered.floorIndex(first.getTimestamp(first.size() - 1))));
+        assertEquals(second.getTimestamp(0), filtered.getTimestamp(filtered.ceilingIndex(second.getTimestamp(0))));
+        assertTrue(maxError(first, filtered) <= 50 + 0.1);
+        assertTrue(maxError(second, filtered) <= 50 + 0.1);
+    }
+}
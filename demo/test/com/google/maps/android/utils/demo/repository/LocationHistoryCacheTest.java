@@ -0,0 +1,189 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationHistoryCacheTest {
+    private static final int MIN_ACCURACY = 100;
+    // Spans several blocks, with a partial last one.
+    private static final int POINT_COUNT = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final LocationHistoryCache.Key mKey = new LocationHistoryCache.Key("content://history", 1234, 5678, 42);
+    private File mFile;
+    private long[] mTimestamps;
+    private int[] mLats;
+    private int[] mLngs;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "cache.bin");
+        Random random = new Random(1);
+        mTimestamps = new long[POINT_COUNT];
+        mLats = new int[POINT_COUNT];
+        mLngs = new int[POINT_COUNT];
+        long timestamp = 1400000000000L;
+        for (int i = 0; i < POINT_COUNT; i++) {
+            // Mostly increasing, with the occasional step back in time.
+            timestamp += random.nextInt(120000) - 10000;
+            mTimestamps[i] = timestamp;
+            mLats[i] = random.nextInt(1800000000) - 900000000;
+            mLngs[i] = random.nextInt(Integer.MAX_VALUE) * (random.nextBoolean() ? 1 : -1);
+        }
+    }
+
+    private void writeCache() throws IOException {
+        LocationHistoryCache.Writer writer = LocationHistoryCache.Writer.open(mFile, mKey, MIN_ACCURACY);
+        for (int i = 0; i < POINT_COUNT; i++)
+            writer.add(mTimestamps[i], mLats[i], mLngs[i]);
+        writer.commit();
+    }
+
+    private List<long[]> read(LocationHistoryCache.Key key, int minAccuracy, long startTime, long endTime,
+                              boolean[] result) {
+        List<long[]> points = new ArrayList<>();
+        result[0] = LocationHistoryCache.read(mFile, key, minAccuracy, startTime, endTime,
+                (timestamp, lat, lng) -> points.add(new long[] { timestamp, lat, lng }));
+        return points;
+    }
+
+    @Test
+    public void readsAllPointsInFileOrder() throws IOException {
+        writeCache();
+        boolean[] result = new boolean[1];
+        List<long[]> points = read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertTrue(result[0]);
+        assertEquals(POINT_COUNT, points.size());
+        for (int i = 0; i < POINT_COUNT; i++) {
+            assertEquals(mTimestamps[i], points.get(i)[0]);
+            assertEquals(mLats[i], points.get(i)[1]);
+            assertEquals(mLngs[i], points.get(i)[2]);
+        }
+    }
+
+    @Test
+    public void readsOnlyTheRequestedRange() throws IOException {
+        writeCache();
+        long startTime = mTimestamps[POINT_COUNT / 3];
+        long endTime = mTimestamps[POINT_COUNT / 2];
+        List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < POINT_COUNT; i++) {
+            if (mTimestamps[i] >= startTime && mTimestamps[i] <= endTime)
+                expected.add(new long[] { mTimestamps[i], mLats[i], mLngs[i] });
+        }
+        boolean[] result = new boolean[1];
+        List<long[]> points = read(mKey, MIN_ACCURACY, startTime, endTime, result);
+        assertTrue(result[0]);
+        assertEquals(expected.size(), points.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i)[0], points.get(i)[0]);
+    }
+
+    @Test
+    public void emptyCacheIsValid() throws IOException {
+        LocationHistoryCache.Writer.open(mFile, mKey, MIN_ACCURACY).commit();
+        boolean[] result = new boolean[1];
+        assertTrue(read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result).isEmpty());
+        assertTrue(result[0]);
+    }
+
+    @Test
+    public void missingCacheIsRejected() {
+        boolean[] result = new boolean[1];
+        read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+    }
+
+    @Test
+    public void abortedCacheIsNotVisible() throws IOException {
+        LocationHistoryCache.Writer writer = LocationHistoryCache.Writer.open(mFile, mKey, MIN_ACCURACY);
+        writer.add(1, 2, 3);
+        writer.abort();
+        assertFalse(mFile.exists());
+        assertEquals(0, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void staleCacheIsRejected() throws IOException {
+        writeCache();
+        boolean[] result = new boolean[1];
+        read(new LocationHistoryCache.Key("content://other", 1234, 5678, 42), MIN_ACCURACY,
+                Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+        read(new LocationHistoryCache.Key("content://history", 1235, 5678, 42), MIN_ACCURACY,
+                Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+        read(new LocationHistoryCache.Key("content://history", 1234, 5679, 42), MIN_ACCURACY,
+                Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+        read(new LocationHistoryCache.Key("content://history", 1234, 5678, 43), MIN_ACCURACY,
+                Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+        read(mKey, MIN_ACCURACY + 1, Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+    }
+
+    @Test
+    public void corruptBlockIsRejectedBeforeAnyPointIsRead() throws IOException {
+        writeCache();
+        // A byte in the last block, so the earlier blocks would decode fine.
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            long directoryOffset = directoryOffset(raf);
+            raf.seek(directoryOffset - 10);
+            int b = raf.read();
+            raf.seek(directoryOffset - 10);
+            raf.write(b ^ 0x01);
+        }
+        boolean[] result = new boolean[1];
+        List<long[]> points = read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result);
+        assertFalse(result[0]);
+        assertTrue(points.isEmpty());
+    }
+
+    @Test
+    public void corruptDirectoryIsRejected() throws IOException {
+        writeCache();
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            // Point the first block past the end of the data.
+            raf.seek(directoryOffset(raf) + 4 + 8 + 8 + 4);
+            raf.writeInt(Integer.MAX_VALUE - 16);
+        }
+        boolean[] result = new boolean[1];
+        assertTrue(read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result).isEmpty());
+        assertFalse(result[0]);
+    }
+
+    @Test
+    public void truncatedCacheIsRejected() throws IOException {
+        writeCache();
+        long length = mFile.length();
+        for (long truncated : new long[] { length - 1, length / 2, 12, 0 }) {
+            try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+                raf.setLength(truncated);
+            }
+            boolean[] result = new boolean[1];
+            assertTrue(read(mKey, MIN_ACCURACY, Long.MIN_VALUE, Long.MAX_VALUE, result).isEmpty());
+            assertFalse("Truncated to " + truncated, result[0]);
+        }
+    }
+
+    private static long directoryOffset(RandomAccessFile raf) throws IOException {
+        raf.seek(raf.length() - 8);
+        return raf.readLong();
+    }
+}
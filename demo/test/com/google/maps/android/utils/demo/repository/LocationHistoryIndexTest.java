@@ -0,0 +1,152 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationHistoryIndexTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mHistoryFile;
+    private File mIndexFile;
+    private LocationHistoryCache.Key mKey;
+    private final List<Long> mTimestamps = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mHistoryFile = mFolder.newFile();
+        mIndexFile = new File(mFolder.getRoot(), "index/history.idx");
+        // Large enough for the parallel scanner to use several chunks.
+        TestLocationHistory.write(mHistoryFile, 2 * ParallelLocationHistoryScanner.CHUNK_SIZE + 999, false, null);
+        mKey = new LocationHistoryCache.Key("content://history", mHistoryFile.length(), 5678, 42);
+    }
+
+    private LocationHistoryIndex buildIndex(File historyFile) throws IOException {
+        LocationHistoryIndex index = new LocationHistoryIndex();
+        mTimestamps.clear();
+        try (FileInputStream stream = new FileInputStream(historyFile);
+             FileChannel channel = stream.getChannel()) {
+            ParallelLocationHistoryScanner scanner = new ParallelLocationHistoryScanner(channel, 2);
+            scanner.setIndex(index);
+            scanner.scan((timestamp, lat, lng, accuracy) -> mTimestamps.add(timestamp));
+        }
+        return index;
+    }
+
+    private List<Long> readRange(LocationHistoryIndex index, long startTime, long endTime) throws IOException {
+        List<Long> timestamps = new ArrayList<>();
+        try (FileInputStream stream = new FileInputStream(mHistoryFile);
+             FileChannel channel = stream.getChannel()) {
+            LocationHistoryScanner scanner = new LocationHistoryScanner(channel);
+            scanner.seek(index.seekOffset(startTime));
+            scanner.scanRecords(Long.MAX_VALUE, (timestamp, lat, lng, accuracy) -> {
+                if (timestamp > endTime)
+                    return false;
+                if (timestamp >= startTime)
+                    timestamps.add(timestamp);
+                return true;
+            });
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void seekingReadsTheSameRecordsAsAFullScan() throws IOException {
+        buildIndex(mHistoryFile).write(mIndexFile, mKey);
+        LocationHistoryIndex index = LocationHistoryIndex.read(mIndexFile, mKey);
+        assertNotNull(index);
+
+        Random random = new Random(3);
+        long first = mTimestamps.get(0);
+        long last = mTimestamps.get(mTimestamps.size() - 1);
+        for (int i = 0; i < 50; i++) {
+            long startTime = first - 1000000 + (long) (random.nextDouble() * (last - first + 2000000));
+            long endTime = startTime + (long) (random.nextDouble() * (last - first) / 20);
+            if (i == 0) {
+                startTime = Long.MIN_VALUE;
+                endTime = Long.MAX_VALUE;
+            }
+            List<Long> expected = new ArrayList<>();
+            for (long timestamp : mTimestamps) {
+                if (timestamp >= startTime && timestamp <= endTime)
+                    expected.add(timestamp);
+            }
+            assertEquals(expected, readRange(index, startTime, endTime));
+        }
+    }
+
+    @Test
+    public void rangeSizeCoversTheRange() throws IOException {
+        LocationHistoryIndex index = buildIndex(mHistoryFile);
+        long size = mHistoryFile.length();
+        assertEquals(size, index.rangeSize(Long.MIN_VALUE, Long.MAX_VALUE, size), size / 100.0);
+        long middle = mTimestamps.get(mTimestamps.size() / 2);
+        long rangeSize = index.rangeSize(middle, middle + 1, size);
+        assertTrue(rangeSize > 0 && rangeSize < size / 10);
+        assertEquals(-1, index.endOffset(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void staleIndexIsRejected() throws IOException {
+        buildIndex(mHistoryFile).write(mIndexFile, mKey);
+        assertNull(LocationHistoryIndex.read(mIndexFile, new LocationHistoryCache.Key("content://other", mKey.size, 5678, 42)));
+        assertNull(LocationHistoryIndex.read(mIndexFile, new LocationHistoryCache.Key(mKey.uri, mKey.size + 1, 5678, 42)));
+        assertNull(LocationHistoryIndex.read(mIndexFile, new LocationHistoryCache.Key(mKey.uri, mKey.size, 5679, 42)));
+        assertNull(LocationHistoryIndex.read(mIndexFile, new LocationHistoryCache.Key(mKey.uri, mKey.size, 5678, 43)));
+        assertNull(LocationHistoryIndex.read(new File(mFolder.getRoot(), "missing.idx"), mKey));
+    }
+
+    @Test
+    public void corruptIndexIsRejected() throws IOException {
+        buildIndex(mHistoryFile).write(mIndexFile, mKey);
+        try (RandomAccessFile raf = new RandomAccessFile(mIndexFile, "rw")) {
+            // Point the last entry before the one preceding it.
+            raf.seek(raf.length() - 8);
+            raf.writeLong(0);
+        }
+        assertNull(LocationHistoryIndex.read(mIndexFile, mKey));
+
+        buildIndex(mHistoryFile).write(mIndexFile, mKey);
+        try (RandomAccessFile raf = new RandomAccessFile(mIndexFile, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertNull(LocationHistoryIndex.read(mIndexFile, mKey));
+    }
+
+    @Test
+    public void unsortedFileIsNotIndexed() throws IOException {
+        StringBuilder json = new StringBuilder("{\"locations\":[");
+        for (int i = 0; i < 5000; i++) {
+            json.append(i > 0 ? "," : "").append("{\"timestampMs\":\"").append(10000000 - i * 1000L)
+                    .append("\",\"latitudeE7\":1,\"longitudeE7\":2,\"accuracy\":3}");
+        }
+        File file = mFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(json.append("]}").toString().getBytes(Charset.forName("UTF-8")));
+        }
+        LocationHistoryIndex index = buildIndex(file);
+        assertFalse(index.isSorted());
+        index.write(mIndexFile, new LocationHistoryCache.Key("content://history", file.length(), 1, 42));
+        assertFalse(mIndexFile.exists());
+        assertFalse(new File(mIndexFile.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,111 @@
+package com.google.maps.android.utils.demo.repository;
+
+import com.google.gson.stream.JsonReader;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares LocationHistoryScanner with the JsonReader loop it replaced on a synthetic Takeout file.
+ *
+ * Only runs with -Dbenchmark=true (gradle: -Pbenchmark). The size defaults to 1 GB and can be
+ * changed with -Dbenchmark.bytes.
+ */
+public class LocationHistoryScannerBenchmark {
+    private static final int RUNS = 3;
+
+    @ClassRule
+    public static TemporaryFolder sFolder = new TemporaryFolder();
+
+    private static File sFile;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        sFile = new File(sFolder.getRoot(), "Location History.json");
+        long bytes = Long.getLong("benchmark.bytes", 1L << 30);
+        long start = System.nanoTime();
+        long records = TestLocationHistory.write(sFile, bytes, true, null);
+        System.out.println(String.format(Locale.US, "Generated %,d records, %,d bytes in %d ms",
+                records, sFile.length(), (System.nanoTime() - start) / 1000000));
+    }
+
+    @Test
+    public void scannerVersusJsonReader() throws IOException {
+        long expected = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            long jsonReaderSum = scanWithJsonReader(sFile);
+            long jsonReaderMs = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            long scannerSum = scanWithScanner(sFile);
+            long scannerMs = (System.nanoTime() - start) / 1000000;
+
+            assertEquals(jsonReaderSum, scannerSum);
+            if (run > 0)
+                assertEquals(expected, scannerSum);
+            expected = scannerSum;
+            System.out.println(String.format(Locale.US, "Run %d: JsonReader %d ms, scanner %d ms (%.1fx)",
+                    run, jsonReaderMs, scannerMs, jsonReaderMs / (double) Math.max(scannerMs, 1)));
+        }
+    }
+
+    private static long checksum(long sum, long timestamp, long lat, long lng, int accuracy) {
+        return sum * 31 + timestamp + lat * 7 + lng * 13 + accuracy;
+    }
+
+    private static long scanWithScanner(File file) throws IOException {
+        final long[] sum = {0};
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            new LocationHistoryScanner(channel).scan((timestamp, lat, lng, accuracy) -> {
+                sum[0] = checksum(sum[0], timestamp, lat, lng, accuracy);
+                return true;
+            });
+        }
+        return sum[0];
+    }
+
+    /**
+     * The loop LocationDataRepository used before the scanner.
+     */
+    private static long scanWithJsonReader(File file) throws IOException {
+        long sum = 0;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file),
+                Charset.forName("UTF-8")))) {
+            reader.beginObject();
+            reader.nextName(); // "locations"
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                reader.nextName(); // "timestampMs"
+                long timestamp = reader.nextLong();
+                reader.nextName(); // "latitudeE7"
+                long lat = reader.nextLong();
+                reader.nextName(); // "longitudeE7"
+                long lng = reader.nextLong();
+                reader.nextName(); // "accuracy"
+                int accuracy = reader.nextInt();
+                sum = checksum(sum, timestamp, lat, lng, accuracy);
+                while (reader.hasNext())
+                    reader.skipValue();
+                reader.endObject();
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,152 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocationHistoryScannerTest {
+
+    private static List<long[]> scan(String json, boolean oneByteAtATime) throws IOException {
+        byte[] bytes = json.getBytes(Charset.forName("UTF-8"));
+        ReadableByteChannel channel = oneByteAtATime ? new TrickleChannel(bytes)
+                : Channels.newChannel(new ByteArrayInputStream(bytes));
+        List<long[]> points = new ArrayList<>();
+        new LocationHistoryScanner(channel).scan((timestamp, lat, lng, accuracy) -> {
+            points.add(new long[] { timestamp, lat, lng, accuracy });
+            return true;
+        });
+        return points;
+    }
+
+    private static void assertPoint(long[] point, long timestamp, int lat, int lng, int accuracy) {
+        assertEquals(timestamp, point[0]);
+        assertEquals(lat, point[1]);
+        assertEquals(lng, point[2]);
+        assertEquals(accuracy, point[3]);
+    }
+
+    @Test
+    public void readsTakeoutRecords() throws IOException {
+        String json = "{\n  \"locations\" : [ {\n    \"timestampMs\" : \"1500000000000\",\n" +
+                "    \"latitudeE7\" : 525000000,\n    \"longitudeE7\" : -1340000,\n    \"accuracy\" : 20\n" +
+                "  }, {\n    \"timestampMs\" : \"1500000060000\",\n    \"latitudeE7\" : -335000000,\n" +
+                "    \"longitudeE7\" : 1510000000,\n    \"accuracy\" : 1500\n  } ]\n}";
+        for (boolean trickle : new boolean[] { false, true }) {
+            List<long[]> points = scan(json, trickle);
+            assertEquals(2, points.size());
+            assertPoint(points.get(0), 1500000000000L, 525000000, -1340000, 20);
+            assertPoint(points.get(1), 1500000060000L, -335000000, 1510000000, 1500);
+        }
+    }
+
+    @Test
+    public void fieldsMayComeInAnyOrderAndUnquoted() throws IOException {
+        List<long[]> points = scan("{\"locations\":[{\"accuracy\":5,\"longitudeE7\":2,\"latitudeE7\":1," +
+                "\"timestampMs\":3}]}", false);
+        assertEquals(1, points.size());
+        assertPoint(points.get(0), 3, 1, 2, 5);
+    }
+
+    @Test
+    public void skipsNestedValuesAndOtherKeys() throws IOException {
+        // Brackets and escaped quotes inside strings must not confuse the bracket counting.
+        String json = "{\"version\":\"1]}\",\"meta\":{\"a\":[1,{\"b\":\"\\\"}\"}]},\"locations\":[" +
+                "{\"timestampMs\":\"1\",\"activity\":[{\"timestampMs\":\"99\",\"activity\":[{\"type\":\"STILL\"," +
+                "\"confidence\":100}]}],\"latitudeE7\":10,\"verticalAccuracy\":-1,\"velocity\":1.5e2," +
+                "\"flag\":true,\"none\":null,\"longitudeE7\":20,\"accuracy\":30,\"note\":\"a\\\\\"}]}";
+        for (boolean trickle : new boolean[] { false, true }) {
+            List<long[]> points = scan(json, trickle);
+            assertEquals(1, points.size());
+            assertPoint(points.get(0), 1, 10, 20, 30);
+        }
+    }
+
+    @Test
+    public void incompleteRecordsAreDropped() throws IOException {
+        List<long[]> points = scan("{\"locations\":[{},{\"timestampMs\":\"1\",\"latitudeE7\":2}," +
+                "{\"timestampMs\":\"4\",\"latitudeE7\":5,\"longitudeE7\":6}]}", false);
+        assertEquals(1, points.size());
+        // Missing accuracy doesn't discard the point.
+        assertPoint(points.get(0), 4, 5, 6, 0);
+    }
+
+    @Test
+    public void emptyDocuments() throws IOException {
+        assertTrue(scan("{}", false).isEmpty());
+        assertTrue(scan(" { \"locations\" : [ ] } ", false).isEmpty());
+        assertTrue(scan("{\"other\":[1,2]}", false).isEmpty());
+    }
+
+    @Test
+    public void listenerCanStopTheScan() throws IOException {
+        byte[] bytes = "{\"locations\":[{\"timestampMs\":1,\"latitudeE7\":1,\"longitudeE7\":1},{\"timestampMs\":2,\"latitudeE7\":1,\"longitudeE7\":1}]}"
+                .getBytes(Charset.forName("UTF-8"));
+        List<Long> timestamps = new ArrayList<>();
+        LocationHistoryScanner scanner = new LocationHistoryScanner(new TrickleChannel(bytes));
+        scanner.scan((timestamp, lat, lng, accuracy) -> {
+            timestamps.add(timestamp);
+            return false;
+        });
+        assertEquals(1, timestamps.size());
+        assertTrue(scanner.position() > 0 && scanner.position() < bytes.length);
+    }
+
+    @Test
+    public void malformedInputThrows() {
+        String[] inputs = {
+                "",
+                "[]",
+                "{\"locations\":[{\"timestampMs\":1,\"latitudeE7\":1,\"longitudeE7\":1}",
+                "{\"locations\":[{\"timestampMs\":\"x\",\"latitudeE7\":1,\"longitudeE7\":1}]}",
+                "{\"locations\":[{\"timestampMs\":1 \"latitudeE7\":1}]}",
+                "{\"locations\":[{\"note\":\"unterminated}]}",
+        };
+        for (String input : inputs) {
+            try {
+                scan(input, false);
+                fail("Expected an IOException for " + input);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    /**
+     * Returns one byte per read, so every token straddles a buffer refill.
+     */
+    private static class TrickleChannel implements ReadableByteChannel {
+        private final byte[] mBytes;
+        private int mPos;
+
+        TrickleChannel(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (mPos == mBytes.length)
+                return -1;
+            dst.put(mBytes[mPos++]);
+            return 1;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.google.maps.android.utils.demo.repository;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+import com.google.maps.android.utils.demo.model.LocationHistory;
+import com.google.maps.android.utils.demo.model.MediaItem;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares LocationInterpolator with the per-item binary searches it replaced, on a synthetic
+ * history with a sample every 10 to 60 s and a day without samples every so often.
+ *
+ * Only runs with -Dbenchmark=true (gradle: -Pbenchmark). The sizes default to 5M samples and 100k
+ * media, and can be changed with -Dbenchmark.samples and -Dbenchmark.media.
+ */
+public class LocationInterpolatorBenchmark {
+    private static final int RUNS = 5;
+    private static final long MAX_GAP_MS = 12 * 60 * 60 * 1000;
+
+    private static LocationHistory sHistory;
+    private static List<MediaItem> sMedia;
+
+    @BeforeClass
+    public static void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int samples = Integer.getInteger("benchmark.samples", 5000000);
+        int media = Integer.getInteger("benchmark.media", 100000);
+        Random random = new Random(42);
+        LocationHistory.Builder builder = new LocationHistory.Builder(samples);
+        long timestamp = 1400000000000L;
+        double lat = 48.0;
+        double lng = 11.0;
+        for (int i = 0; i < samples; i++) {
+            timestamp += 10000 + random.nextInt(50000);
+            if (random.nextInt(50000) == 0)
+                timestamp += 24 * 60 * 60 * 1000;
+            lat = Math.max(-80, Math.min(80, lat + random.nextGaussian() * 0.002));
+            lng += random.nextGaussian() * 0.003;
+            if (lng >= 180)
+                lng -= 360;
+            else if (lng < -180)
+                lng += 360;
+            builder.add(timestamp, (int) Math.round(lat * 1e7), (int) Math.round(lng * 1e7));
+        }
+        sHistory = builder.build();
+        long first = sHistory.getTimestamp(0);
+        long span = sHistory.getTimestamp(sHistory.size() - 1) - first;
+        sMedia = new ArrayList<>(media);
+        for (int i = 0; i < media; i++) {
+            long date = first + (long) (random.nextDouble() * span);
+            sMedia.add(new MediaItem(null, "/sdcard/DCIM/Camera/" + i + ".jpg", i, date, date / 1000,
+                    date / 1000, 1));
+        }
+        System.out.println(String.format(Locale.US, "%,d samples, %,d media", sHistory.size(), sMedia.size()));
+    }
+
+    @Test
+    public void mergePassVersusBinarySearches() {
+        LocationInterpolator interpolator = new LocationInterpolator(MAX_GAP_MS);
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            List<MediaItem> searched = interpolateWithBinarySearches(sHistory, sMedia);
+            long searchMs = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            List<MediaItem> merged = interpolator.interpolate(sHistory, sMedia);
+            long mergeMs = (System.nanoTime() - start) / 1000000;
+
+            System.out.println(String.format(Locale.US, "Run %d: binary searches %d ms, merge pass %d ms (%.1fx)",
+                    run, searchMs, mergeMs, searchMs / (double) Math.max(mergeMs, 1)));
+            if (run == 0)
+                System.out.println(String.format(Locale.US, "Largest difference %.1f mm",
+                        compare(searched, merged) * 1000));
+        }
+    }
+
+    /**
+     * Checks that items interpolated between samples within the max gap are placed the same way.
+     * @return the largest distance between the two positions of an item, in metres.
+     */
+    private static double compare(List<MediaItem> searched, List<MediaItem> merged) {
+        Map<Long, LatLng> positions = new HashMap<>();
+        for (MediaItem m : searched)
+            positions.put(m.mId, m.getPosition());
+        double maxDistance = 0;
+        int compared = 0;
+        for (MediaItem m : merged) {
+            int floor = sHistory.floorIndex(m.date);
+            int ceiling = sHistory.ceilingIndex(m.date);
+            if (floor < 0 || ceiling < 0 || sHistory.getTimestamp(ceiling) - sHistory.getTimestamp(floor) > MAX_GAP_MS)
+                continue;
+            maxDistance = Math.max(maxDistance, SphericalUtil.computeDistanceBetween(positions.get(m.mId),
+                    m.getPosition()));
+            compared++;
+        }
+        assertTrue(compared > merged.size() * 0.9);
+        assertTrue(String.valueOf(maxDistance), maxDistance < 0.1);
+        assertEquals(sMedia.size(), searched.size());
+        return maxDistance;
+    }
+
+    /**
+     * The loop LocationDataRepository used before LocationInterpolator.
+     */
+    private static List<MediaItem> interpolateWithBinarySearches(LocationHistory locationHistory,
+                                                                 List<MediaItem> media) {
+        List<MediaItem> placed = new ArrayList<>(media.size());
+        for (MediaItem m : media) {
+            int floorIndex = locationHistory.floorIndex(m.date);
+            int ceilingIndex = locationHistory.ceilingIndex(m.date);
+            if (floorIndex < 0 && ceilingIndex < 0)
+                continue;
+            else if (floorIndex < 0)
+                floorIndex = ceilingIndex;
+            else if (ceilingIndex < 0)
+                ceilingIndex = floorIndex;
+            long floorTimestamp = locationHistory.getTimestamp(floorIndex);
+            long ceilingTimestamp = locationHistory.getTimestamp(ceilingIndex);
+            double fraction = 0.5d;
+            if (ceilingTimestamp != floorTimestamp)
+                fraction = (double) (m.date - floorTimestamp) / (ceilingTimestamp - floorTimestamp);
+            LatLng interpolatedLatLng = SphericalUtil.interpolate(locationHistory.getLatLng(floorIndex),
+                    locationHistory.getLatLng(ceilingIndex), fraction);
+            placed.add(new MediaItem(interpolatedLatLng, m.mediaPath, m.mId, m.date, m.dateAdded,
+                    m.dateModified, m.type));
+        }
+        return placed;
+    }
+}
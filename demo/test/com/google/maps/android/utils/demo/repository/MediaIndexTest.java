@@ -0,0 +1,148 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MediaIndexTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "media_index.bin");
+    }
+
+    private static MediaIndex.Entry entry(long id, String bucket, long dateAdded, long dateModified) {
+        return new MediaIndex.Entry(id, bucket, "/sdcard/DCIM/" + bucket + "/" + id + ".jpg",
+                dateAdded * 1000, dateAdded, dateModified, 1000 + id, 1);
+    }
+
+    private static List<Long> ids(List<MediaIndex.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (MediaIndex.Entry entry : entries)
+            ids.add(entry.id);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void changesSurviveWritingAndReading() {
+        MediaIndex index = MediaIndex.read(mFile);
+        int first = index.newGeneration();
+        for (long id = 1; id <= 3; id++)
+            assertTrue(index.update(entry(id, "Camera", 100 + id, 100 + id), first));
+        index.write();
+
+        index = MediaIndex.read(mFile);
+        assertEquals(first, index.getGeneration());
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(index.changesSince(0).changed));
+        assertTrue(index.changesSince(first).isEmpty());
+
+        int second = index.newGeneration();
+        assertFalse(index.update(entry(1, "Camera", 101, 101), second));
+        assertTrue(index.update(entry(2, "Camera", 102, 200), second));
+        index.remove(3, second);
+        index.write();
+
+        index = MediaIndex.read(mFile);
+        assertEquals(second, index.getGeneration());
+        MediaIndex.Delta delta = index.changesSince(first);
+        assertNotNull(delta);
+        assertEquals(Collections.singletonList(2L), ids(delta.changed));
+        assertEquals(Collections.singleton(3L), delta.removedIds);
+        assertEquals(Arrays.asList(1L, 2L), ids(index.changesSince(0).changed));
+        assertTrue(index.changesSince(second).isEmpty());
+
+        // Added again after being removed.
+        int third = index.newGeneration();
+        assertTrue(index.update(entry(3, "Camera", 103, 300), third));
+        delta = index.changesSince(second);
+        assertEquals(Collections.singletonList(3L), ids(delta.changed));
+        assertTrue(delta.removedIds.isEmpty());
+    }
+
+    @Test
+    public void forgottenRemovalsAreUnknownChanges() {
+        MediaIndex index = MediaIndex.read(mFile);
+        int added = index.newGeneration();
+        for (long id = 0; id <= MediaIndex.MAX_REMOVED; id++)
+            index.update(entry(id, "Camera", 100, 100), added);
+        int firstRemoval = index.newGeneration();
+        index.remove(0, firstRemoval);
+        int laterRemovals = index.newGeneration();
+        for (long id = 1; id <= MediaIndex.MAX_REMOVED; id++)
+            index.remove(id, laterRemovals);
+        index.write();
+
+        index = MediaIndex.read(mFile);
+        // The removal in firstRemoval was dropped, so changes since before it aren't known.
+        assertNull(index.changesSince(added));
+        assertNotNull(index.changesSince(firstRemoval));
+        assertEquals(MediaIndex.MAX_REMOVED, index.changesSince(firstRemoval).removedIds.size());
+        assertTrue(index.changesSince(laterRemovals).isEmpty());
+    }
+
+    @Test
+    public void unknownGenerationHasNoChanges() {
+        MediaIndex index = MediaIndex.read(mFile);
+        int generation = index.newGeneration();
+        index.update(entry(1, "Camera", 100, 100), generation);
+        // E.g. a generation of an index that was since reset.
+        assertNull(index.changesSince(generation + 1));
+    }
+
+    @Test
+    public void corruptIndexStartsEmpty() throws IOException {
+        MediaIndex index = MediaIndex.read(mFile);
+        int generation = index.newGeneration();
+        for (long id = 1; id <= 100; id++)
+            index.update(entry(id, "Camera", 100, 100), generation);
+        index.remove(50, generation);
+        index.write();
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        index = MediaIndex.read(mFile);
+        assertFalse(index.isSynced());
+        assertEquals(0, index.getGeneration());
+        assertTrue(index.changesSince(0).isEmpty());
+        assertTrue(index.query(Collections.emptySet(), 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void queryMatchesFoldersAndRangeNewestFirst() {
+        MediaIndex index = MediaIndex.read(mFile);
+        int generation = index.newGeneration();
+        index.update(entry(1, "Camera", 100, 100), generation);
+        index.update(entry(2, "Camera", 300, 300), generation);
+        index.update(entry(3, "Screenshots", 200, 200), generation);
+        index.update(entry(4, "Camera", 300, 300), generation);
+        index.update(entry(5, "Camera", 500, 500), generation);
+
+        List<Long> ids = new ArrayList<>();
+        for (MediaIndex.Entry entry : index.query(new HashSet<>(Collections.singletonList("Camera")),
+                100 * 1000, 300 * 1000))
+            ids.add(entry.id);
+        assertEquals(Arrays.asList(4L, 2L, 1L), ids);
+        assertEquals(5, index.query(Collections.emptySet(), 0, Long.MAX_VALUE).size());
+    }
+}
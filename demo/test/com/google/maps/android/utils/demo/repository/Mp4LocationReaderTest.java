@@ -0,0 +1,165 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4LocationReaderTest {
+    private static final String LOCATION = "+37.4220-122.0841+012.345/";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Mp4LocationReader mReader = new Mp4LocationReader();
+
+    private static byte[] box(String type, byte[]... children) {
+        int size = 8;
+        for (byte[] child : children)
+            size += child.length;
+        ByteBuffer buf = ByteBuffer.allocate(size).putInt(size).put(type.getBytes(Charset.forName("ISO-8859-1")));
+        for (byte[] child : children)
+            buf.put(child);
+        return buf.array();
+    }
+
+    private static byte[] bytes(int... values) {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4);
+        for (int value : values)
+            buf.putInt(value);
+        return buf.array();
+    }
+
+    /**
+     * Media data with a 64 bit size, as used for files over 4 GB.
+     */
+    private static byte[] largeMdat(int dataSize) {
+        return ByteBuffer.allocate(16 + dataSize).putInt(1).put("mdat".getBytes(UTF8))
+                .putLong(16 + dataSize).array();
+    }
+
+    private static byte[] xyz(String location) {
+        byte[] value = location.getBytes(UTF8);
+        return box("\u00a9xyz", ByteBuffer.allocate(4 + value.length)
+                .putShort((short) value.length).putShort((short) 0x15c7).put(value).array());
+    }
+
+    /**
+     * QuickTime metadata with the location as the second key.
+     * @param fullBox whether "meta" has a version and flags, as in ISO files.
+     */
+    private static byte[] quickTimeMeta(boolean fullBox, String location) {
+        byte[] makeKey = "com.apple.quicktime.make".getBytes(UTF8);
+        byte[] locationKey = "com.apple.quicktime.location.ISO6709".getBytes(UTF8);
+        byte[] keys = box("keys", bytes(0, 2),
+                bytes(8 + makeKey.length), "mdta".getBytes(UTF8), makeKey,
+                bytes(8 + locationKey.length), "mdta".getBytes(UTF8), locationKey);
+        byte[] ilst = box("ilst",
+                box("\0\0\0\1", box("data", bytes(1, 0), "Apple".getBytes(UTF8))),
+                box("\0\0\0\2", box("data", bytes(1, 0), location.getBytes(UTF8))));
+        byte[] hdlr = box("hdlr", bytes(0, 0), "mdta".getBytes(UTF8), new byte[13]);
+        return fullBox ? box("meta", bytes(0), hdlr, keys, ilst) : box("meta", hdlr, keys, ilst);
+    }
+
+    private static byte[] moov(byte[]... children) {
+        byte[][] all = Arrays.copyOf(new byte[][] { box("mvhd", new byte[100]) }, children.length + 1);
+        System.arraycopy(children, 0, all, 1, children.length);
+        return box("moov", all);
+    }
+
+    private File file(byte[]... boxes) throws IOException {
+        File file = mFolder.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(box("ftyp", "isom".getBytes(UTF8), bytes(0x200)));
+            for (byte[] box : boxes)
+                raf.write(box);
+        }
+        return file;
+    }
+
+    private void assertLocation(float[] latLong) {
+        assertNotNull(latLong);
+        assertEquals(37.4220, latLong[0], 1e-5);
+        assertEquals(-122.0841, latLong[1], 1e-5);
+    }
+
+    @Test
+    public void readsUserDataAfterLargeMediaData() throws IOException {
+        File file = file(largeMdat(300000), moov(box("trak", new byte[5000]), box("udta", xyz(LOCATION))));
+        assertLocation(mReader.read(file.getPath()));
+        // The media data and track aren't read.
+        assertTrue(mReader.getStats(), mReader.getStats().startsWith("1 files, 0 KB read, "));
+    }
+
+    @Test
+    public void readsUserDataBeforeMediaData() throws IOException {
+        assertLocation(mReader.read(file(moov(box("udta", xyz(LOCATION))), largeMdat(1000)).getPath()));
+    }
+
+    @Test
+    public void readsQuickTimeMetadata() throws IOException {
+        assertLocation(mReader.read(file(largeMdat(1000), moov(quickTimeMeta(false, LOCATION))).getPath()));
+    }
+
+    @Test
+    public void readsMetadataInUserData() throws IOException {
+        assertLocation(mReader.read(file(moov(box("udta", quickTimeMeta(true, LOCATION)))).getPath()));
+    }
+
+    @Test
+    public void missingLocationIsNull() throws IOException {
+        byte[] udta = box("udta", box("\u00a9nam", new byte[10]));
+        assertNull(mReader.read(file(largeMdat(1000), moov(udta)).getPath()));
+        assertNull(mReader.read(file(largeMdat(1000)).getPath()));
+        assertNull(mReader.read(file(moov(box("udta", xyz("nowhere")))).getPath()));
+    }
+
+    @Test
+    public void truncatedFileIsNull() throws IOException {
+        File file = file(largeMdat(1000), moov(box("udta", xyz(LOCATION))));
+        byte[] data = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(data, data.length - 10));
+        assertNull(mReader.read(file.getPath()));
+
+        // A box claiming more than its parent holds.
+        byte[] udta = box("udta", xyz(LOCATION));
+        ByteBuffer.wrap(udta).putInt(8, 1000);
+        assertNull(mReader.read(file(moov(udta)).getPath()));
+    }
+
+    @Test
+    public void parsesIso6709Forms() {
+        float[] degrees = Mp4LocationReader.parseIso6709("+49.2470+006.8340/");
+        float[] minutes = Mp4LocationReader.parseIso6709("+4914.82+00650.04/");
+        float[] seconds = Mp4LocationReader.parseIso6709("+491449.2+0065002.4+100CRSWGS_84/");
+        for (float[] latLong : new float[][] { degrees, minutes, seconds }) {
+            assertNotNull(latLong);
+            assertEquals(49.2470, latLong[0], 1e-4);
+            assertEquals(6.8340, latLong[1], 1e-4);
+        }
+        float[] southWest = Mp4LocationReader.parseIso6709("-33.8568-151.2153/");
+        assertNotNull(southWest);
+        assertEquals(-33.8568, southWest[0], 1e-4);
+        assertEquals(-151.2153, southWest[1], 1e-4);
+
+        assertNull(Mp4LocationReader.parseIso6709(""));
+        assertNull(Mp4LocationReader.parseIso6709("49.2470+006.8340/"));
+        assertNull(Mp4LocationReader.parseIso6709("+49.2470/"));
+        assertNull(Mp4LocationReader.parseIso6709("+91.0000+006.8340/"));
+        assertNull(Mp4LocationReader.parseIso6709("+4960.00+00650.04/"));
+        assertNull(Mp4LocationReader.parseIso6709("+491.00+006.00/"));
+    }
+}
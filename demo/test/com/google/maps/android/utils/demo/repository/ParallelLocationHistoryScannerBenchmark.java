@@ -0,0 +1,79 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scans a synthetic Takeout file sequentially and with ParallelLocationHistoryScanner on 1, 2, 4
+ * and availableProcessors() threads.
+ *
+ * Only runs with -Dbenchmark=true (gradle: -Pbenchmark). The size defaults to 1 GB and can be
+ * changed with -Dbenchmark.bytes.
+ */
+public class ParallelLocationHistoryScannerBenchmark {
+    private static final int RUNS = 3;
+
+    @ClassRule
+    public static TemporaryFolder sFolder = new TemporaryFolder();
+
+    private static File sFile;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        sFile = new File(sFolder.getRoot(), "Location History.json");
+        long records = TestLocationHistory.write(sFile, Long.getLong("benchmark.bytes", 1L << 30), true, null);
+        System.out.println(String.format(Locale.US, "%,d records, %,d bytes, %d processors", records,
+                sFile.length(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Test
+    public void threadCounts() throws IOException {
+        int[] threadCounts = { 0, 1, 2, 4, Runtime.getRuntime().availableProcessors() };
+        long expected = 0;
+        for (int run = 0; run < RUNS; run++) {
+            StringBuilder line = new StringBuilder("Run ").append(run).append(':');
+            for (int threadCount : threadCounts) {
+                long start = System.nanoTime();
+                long sum = scan(sFile, threadCount);
+                long ms = (System.nanoTime() - start) / 1000000;
+                if (run == 0 && threadCount == 0)
+                    expected = sum;
+                assertEquals(expected, sum);
+                line.append(threadCount == 0 ? " sequential " : String.format(Locale.US, ", %d threads ", threadCount))
+                        .append(ms).append(" ms");
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @param threadCount 0 for the sequential scanner.
+     */
+    private static long scan(File file, int threadCount) throws IOException {
+        final long[] sum = {0};
+        LocationHistoryScanner.Listener listener = (timestamp, lat, lng, accuracy) -> {
+            sum[0] = sum[0] * 31 + timestamp + lat * 7L + lng * 13L + accuracy;
+            return true;
+        };
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            if (threadCount == 0)
+                new LocationHistoryScanner(channel).scan(listener);
+            else
+                new ParallelLocationHistoryScanner(channel, threadCount).scan(listener);
+        }
+        return sum[0];
+    }
+}
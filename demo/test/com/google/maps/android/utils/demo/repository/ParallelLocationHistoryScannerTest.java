@@ -0,0 +1,150 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelLocationHistoryScannerTest {
+    // Three full chunks and a partial one.
+    private static final long LARGE_FILE_SIZE = 3 * ParallelLocationHistoryScanner.CHUNK_SIZE + 12345;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class Points implements LocationHistoryScanner.Listener {
+        final List<long[]> points = new ArrayList<>();
+        int limit = Integer.MAX_VALUE;
+
+        @Override
+        public boolean onLocation(long timestampMs, int latitudeE7, int longitudeE7, int accuracy) {
+            points.add(new long[] { timestampMs, latitudeE7, longitudeE7, accuracy });
+            return points.size() < limit;
+        }
+    }
+
+    private static List<long[]> scanSequential(File file) throws IOException {
+        Points points = new Points();
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            new LocationHistoryScanner(channel).scan(points);
+        }
+        return points.points;
+    }
+
+    private static void scanParallel(File file, int threadCount, Points points) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            new ParallelLocationHistoryScanner(channel, threadCount).scan(points);
+        }
+    }
+
+    private void assertSameAsSequential(boolean pretty) throws IOException {
+        File file = mFolder.newFile();
+        List<Long> recordStarts = new ArrayList<>();
+        TestLocationHistory.write(file, LARGE_FILE_SIZE, pretty, recordStarts);
+        // Every chunk boundary should cut a record in two.
+        for (long boundary = ParallelLocationHistoryScanner.CHUNK_SIZE; boundary < file.length();
+             boundary += ParallelLocationHistoryScanner.CHUNK_SIZE)
+            assertTrue(Collections.binarySearch(recordStarts, boundary) < 0);
+
+        List<long[]> expected = scanSequential(file);
+        assertEquals(recordStarts.size(), expected.size());
+        for (int threadCount : new int[] { 1, 3 }) {
+            Points points = new Points();
+            scanParallel(file, threadCount, points);
+            assertEquals(expected.size(), points.points.size());
+            for (int i = 0; i < expected.size(); i++) {
+                long[] e = expected.get(i);
+                long[] p = points.points.get(i);
+                for (int j = 0; j < e.length; j++)
+                    assertEquals("Record " + i, e[j], p[j]);
+            }
+        }
+    }
+
+    @Test
+    public void prettyFileMatchesSequentialScan() throws IOException {
+        assertSameAsSequential(true);
+    }
+
+    @Test
+    public void compactFileMatchesSequentialScan() throws IOException {
+        assertSameAsSequential(false);
+    }
+
+    @Test
+    public void findRecordStartFindsTheNextRecord() throws IOException {
+        for (boolean pretty : new boolean[] { true, false }) {
+            File file = mFolder.newFile();
+            List<Long> recordStarts = new ArrayList<>();
+            TestLocationHistory.write(file, 200000, pretty, recordStarts);
+            Random random = new Random(7);
+            try (FileInputStream stream = new FileInputStream(file);
+                 FileChannel channel = stream.getChannel()) {
+                LocationHistoryScanner scanner = new LocationHistoryScanner(channel);
+                for (int i = 0; i < 2000; i++) {
+                    // Some exact record starts, the rest anywhere including inside nested activity.
+                    long offset = i % 10 == 0 ? recordStarts.get(random.nextInt(recordStarts.size()))
+                            : (long) (random.nextDouble() * file.length());
+                    int index = Collections.binarySearch(recordStarts, offset);
+                    if (index < 0)
+                        index = -index - 1;
+                    long expected = index < recordStarts.size() ? recordStarts.get(index) : -1;
+                    assertEquals("From offset " + offset, expected, scanner.findRecordStart(offset));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findRecordStartSkipsTheDocumentObject() throws IOException {
+        File file = mFolder.newFile();
+        List<Long> recordStarts = new ArrayList<>();
+        TestLocationHistory.write(file, 1000, false, recordStarts);
+        try (FileInputStream stream = new FileInputStream(file);
+             FileChannel channel = stream.getChannel()) {
+            assertEquals((long) recordStarts.get(0), new LocationHistoryScanner(channel).findRecordStart(0));
+        }
+    }
+
+    @Test
+    public void listenerCanStopTheScan() throws IOException {
+        File file = mFolder.newFile();
+        TestLocationHistory.write(file, LARGE_FILE_SIZE, false, null);
+        Points points = new Points();
+        points.limit = 10;
+        scanParallel(file, 2, points);
+        assertEquals(10, points.points.size());
+    }
+
+    @Test
+    public void truncatedFileThrows() throws IOException {
+        File file = mFolder.newFile();
+        TestLocationHistory.write(file, LARGE_FILE_SIZE, true, null);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 100);
+        }
+        Points points = new Points();
+        try {
+            scanParallel(file, 2, points);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+        assertFalse(points.points.isEmpty());
+    }
+}
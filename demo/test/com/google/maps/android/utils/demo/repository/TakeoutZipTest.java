@@ -0,0 +1,255 @@
+package com.google.maps.android.utils.demo.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TakeoutZipTest {
+    private static final String ENTRY = "Takeout/Location History/Location History.json";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mJsonFile;
+    private byte[] mJson;
+
+    @Before
+    public void setUp() throws IOException {
+        mJsonFile = mFolder.newFile();
+        TestLocationHistory.write(mJsonFile, 300000, true, null);
+        mJson = Files.readAllBytes(mJsonFile.toPath());
+    }
+
+    private File zip(int method, String... names) throws IOException {
+        File file = mFolder.newFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.setComment("Takeout");
+            for (String name : names) {
+                byte[] data = name.endsWith(".json") ? mJson : name.getBytes(Charset.forName("UTF-8"));
+                ZipEntry entry = new ZipEntry(name);
+                entry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] readEntry(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            assertTrue(TakeoutZip.isZip(channel));
+            TakeoutZip zip = TakeoutZip.find(channel);
+            assertNotNull(zip);
+            assertEquals("Location History.json", zip.name.substring(zip.name.lastIndexOf('/') + 1));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteBuffer buf = ByteBuffer.allocate(1000);
+            try (ReadableByteChannel entry = zip.open(channel)) {
+                while (entry.read(buf) >= 0) {
+                    out.write(buf.array(), 0, buf.position());
+                    buf.clear();
+                }
+            }
+            assertEquals(zip.size, out.size());
+            return out.toByteArray();
+        }
+    }
+
+    private static List<Long> scan(File file) throws IOException {
+        List<Long> timestamps = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            TakeoutZip zip = TakeoutZip.isZip(channel) ? TakeoutZip.find(channel) : null;
+            try (ReadableByteChannel entry = zip != null ? zip.open(channel) : null) {
+                new LocationHistoryScanner(entry != null ? entry : channel).scan((timestamp, lat, lng, accuracy) -> {
+                    timestamps.add(timestamp * 31 + lat + lng + accuracy);
+                    return true;
+                });
+            }
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void readsDeflatedEntry() throws IOException {
+        File file = zip(ZipEntry.DEFLATED, "Takeout/archive_browser.html", ENTRY, "Takeout/Maps/a.json.txt");
+        assertArrayEquals(mJson, readEntry(file));
+        assertEquals(scan(mJsonFile), scan(file));
+    }
+
+    @Test
+    public void readsStoredEntry() throws IOException {
+        File file = zip(ZipEntry.STORED, "Takeout/archive_browser.html", ENTRY);
+        assertArrayEquals(mJson, readEntry(file));
+        assertEquals(scan(mJsonFile), scan(file));
+    }
+
+    @Test
+    public void readsZip64EndRecord() throws IOException {
+        // More than 65535 entries make ZipOutputStream write the ZIP64 end records.
+        String[] names = new String[70001];
+        for (int i = 0; i < names.length - 1; i++)
+            names[i] = "Takeout/Fit/" + i;
+        names[names.length - 1] = ENTRY;
+        File file = zip(ZipEntry.STORED, names);
+        assertArrayEquals(mJson, readEntry(file));
+    }
+
+    @Test
+    public void readsZip64ExtraFields() throws IOException {
+        for (boolean deflate : new boolean[] { false, true }) {
+            File file = mFolder.newFile();
+            Files.write(file.toPath(), buildZip64(ENTRY, mJson, deflate, 0));
+            assertArrayEquals(mJson, readEntry(file));
+        }
+    }
+
+    @Test
+    public void missingEntryIsNull() throws IOException {
+        // Only matches the full file name.
+        File file = zip(ZipEntry.DEFLATED, "Takeout/Old Location History.json", "Location History.json.bak");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            assertTrue(TakeoutZip.isZip(channel));
+            assertNull(TakeoutZip.find(channel));
+        }
+    }
+
+    @Test
+    public void jsonIsNotAZip() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mJsonFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            assertFalse(TakeoutZip.isZip(channel));
+        }
+    }
+
+    @Test
+    public void truncatedArchiveThrows() throws IOException {
+        File file = zip(ZipEntry.DEFLATED, ENTRY);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            assertTrue(TakeoutZip.isZip(channel));
+            TakeoutZip.find(channel);
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedEntryThrows() throws IOException {
+        // The directory claims less compressed data than the entry needs.
+        File file = mFolder.newFile();
+        Files.write(file.toPath(), buildZip64(ENTRY, mJson, true, 1000));
+        try {
+            readEntry(file);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void closedEntryChannelRejectsReads() throws IOException {
+        File file = zip(ZipEntry.DEFLATED, ENTRY);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ReadableByteChannel entry = TakeoutZip.find(channel).open(channel);
+            entry.close();
+            assertFalse(entry.isOpen());
+            // Doesn't close the archive's channel.
+            assertTrue(channel.isOpen());
+            entry.read(ByteBuffer.allocate(10));
+            fail("Expected a ClosedChannelException");
+        } catch (ClosedChannelException expected) {
+        }
+    }
+
+    /**
+     * Builds a single entry archive by hand, with the sizes and offset only in ZIP64 extra fields
+     * and ZIP64 end records, as written for archives over 4 GB.
+     * @param missingBytes compressed bytes to leave out of the entry (but not the directory).
+     */
+    private static byte[] buildZip64(String name, byte[] data, boolean deflate, int missingBytes) {
+        byte[] compressed = data;
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[data.length + 1024];
+            int length = 0;
+            while (!deflater.finished())
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            deflater.end();
+            compressed = Arrays.copyOf(buffer, length);
+        }
+        int compressedSize = compressed.length - missingBytes;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] nameBytes = name.getBytes(Charset.forName("UTF-8"));
+        ByteBuffer buf = ByteBuffer.allocate(compressed.length + nameBytes.length * 2 + 1024)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int method = deflate ? 8 : 0;
+
+        buf.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) method)
+                .putInt(0).putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                .putShort((short) nameBytes.length).putShort((short) 20).put(nameBytes)
+                .putShort((short) 1).putShort((short) 16).putLong(data.length).putLong(compressedSize);
+        buf.put(compressed, 0, compressedSize);
+
+        int directoryOffset = buf.position();
+        buf.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0)
+                .putShort((short) method).putInt(0).putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                .putShort((short) nameBytes.length).putShort((short) 28).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1).put(nameBytes)
+                .putShort((short) 1).putShort((short) 24).putLong(data.length).putLong(compressedSize)
+                .putLong(0);
+        int directorySize = buf.position() - directoryOffset;
+
+        int zip64EndOffset = buf.position();
+        buf.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                .putLong(1).putLong(1).putLong(directorySize).putLong(directoryOffset);
+        buf.putInt(0x07064b50).putInt(0).putLong(zip64EndOffset).putInt(1);
+        buf.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1)
+                .putShort((short) -1).putInt(-1).putInt(-1).putShort((short) 0);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+}
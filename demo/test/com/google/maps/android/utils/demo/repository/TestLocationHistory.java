@@ -0,0 +1,90 @@
+package com.google.maps.android.utils.demo.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic Takeout "Location History.json" files for tests and benchmarks.
+ */
+class TestLocationHistory {
+
+    private TestLocationHistory() {
+    }
+
+    /**
+     * Writes records until the file is at least targetBytes long, every fourth one with a nested
+     * activity array. Pretty files use the Takeout layout and field order, compact ones have no
+     * whitespace and the fields of each record in a random order.
+     * @param recordStarts if not null, receives the offset of every record.
+     * @return number of records written.
+     */
+    static long write(File file, long targetBytes, boolean pretty, List<Long> recordStarts)
+            throws IOException {
+        Random random = new Random(42);
+        String[] fields = new String[5];
+        long timestamp = 1400000000000L;
+        long records = 0;
+        long written = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            written += write(out, pretty ? "{\n  \"locations\" : [ " : "{\"locations\":[");
+            while (written < targetBytes) {
+                if (records > 0)
+                    written += write(out, pretty ? ", " : ",");
+                if (recordStarts != null)
+                    recordStarts.add(written);
+                timestamp += 1000 + random.nextInt(120000);
+                String record;
+                if (pretty) {
+                    StringBuilder builder = new StringBuilder(512);
+                    builder.append("{\n    \"timestampMs\" : \"").append(timestamp)
+                            .append("\",\n    \"latitudeE7\" : ").append(random.nextInt(1800000000) - 900000000)
+                            .append(",\n    \"longitudeE7\" : ").append(random.nextInt(Integer.MAX_VALUE) - 1073741823)
+                            .append(",\n    \"accuracy\" : ").append(random.nextInt(2000));
+                    if ((records & 3) == 0) {
+                        builder.append(",\n    \"activity\" : [ {\n      \"timestampMs\" : \"").append(timestamp)
+                                .append("\",\n      \"activity\" : [ {\n        \"type\" : \"STILL\",\n")
+                                .append("        \"confidence\" : ").append(random.nextInt(100))
+                                .append("\n      }, {\n        \"type\" : \"ON_FOOT\",\n        \"confidence\" : ")
+                                .append(random.nextInt(100)).append("\n      } ]\n    } ]");
+                    }
+                    record = builder.append("\n  }").toString();
+                } else {
+                    fields[0] = "\"timestampMs\":\"" + timestamp + "\"";
+                    fields[1] = "\"latitudeE7\":" + (random.nextInt(1800000000) - 900000000);
+                    fields[2] = "\"longitudeE7\":" + (random.nextInt(Integer.MAX_VALUE) - 1073741823);
+                    fields[3] = "\"accuracy\":" + random.nextInt(2000);
+                    fields[4] = (records & 3) == 0 ? "\"activity\":[{\"timestampMs\":\"" + timestamp +
+                            "\",\"activity\":[{\"type\":\"STILL\",\"confidence\":" + random.nextInt(100) +
+                            "},{\"type\":\"ON_FOOT\",\"confidence\":" + random.nextInt(100) + "}]}]" :
+                            "\"velocity\":" + random.nextInt(30);
+                    for (int i = fields.length - 1; i > 0; i--) {
+                        int j = random.nextInt(i + 1);
+                        String field = fields[i];
+                        fields[i] = fields[j];
+                        fields[j] = field;
+                    }
+                    StringBuilder builder = new StringBuilder(256).append('{');
+                    for (int i = 0; i < fields.length; i++)
+                        builder.append(i > 0 ? "," : "").append(fields[i]);
+                    record = builder.append('}').toString();
+                }
+                written += write(out, record);
+                records++;
+            }
+            write(out, pretty ? " ]\n}" : "]}");
+        }
+        return records;
+    }
+
+    private static int write(OutputStream out, String s) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+            out.write(s.charAt(i));
+        return length;
+    }
+}